@@ -4,9 +4,11 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableAspectJAutoProxy(exposeProxy = true)//暴露代理对象，我们就可以获取代理对象，在VoucherOrderServiceImpl用到
 @MapperScan("com.ck.mapper")
+@EnableScheduling
 @SpringBootApplication
 public class DianPingApplication {
 
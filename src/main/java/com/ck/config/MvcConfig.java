@@ -1,19 +1,37 @@
 package com.ck.config;
 
+import com.ck.utils.AdminInterceptor;
+import com.ck.utils.CacheMetrics;
+import com.ck.utils.HotKeyDetector;
 import com.ck.utils.LoginInterceptor;
 import com.ck.utils.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.Set;
+
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 可以访问管理接口的用户id
+     */
+    @Value("${admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -26,8 +44,12 @@ public class MvcConfig implements WebMvcConfigurer {
                 "/upload/**",
                 "blog/hot"
         ).order(1);//后执行此拦截器，进行拦截
+        //管理接口的拦截器，缓存指标和热点key只允许管理员查看
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/cache/**")
+                .order(2);
         //token刷新的拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, hotKeyDetector, cacheMetrics))
                 .addPathPatterns("/**")
                 .order(0);//先执行此拦截器，触发令牌刷新动作
     }
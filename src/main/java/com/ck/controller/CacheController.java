@@ -0,0 +1,74 @@
+package com.ck.controller;
+
+
+import com.ck.dto.Result;
+import com.ck.task.CacheWarmupTask;
+import com.ck.utils.CacheClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheWarmupTask cacheWarmupTask;
+
+    /**
+     * 查询各命名空间的缓存指标
+     * @return 命中率、空值命中、过期数据、重建次数、查询数据库的耗时分布和数据大小分布
+     */
+    @GetMapping("metrics")
+    public Result queryMetrics() {
+        return Result.ok(cacheClient.queryMetrics());
+    }
+
+    /**
+     * 查询热点key
+     * @return 访问次数最多的key，按次数从大到小排序，pinned 表示已固定在本地
+     */
+    @GetMapping("hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(cacheClient.queryHotKeys());
+    }
+
+    /**
+     * 查询缓存重建线程池的排队情况
+     * @return 队列长度、拒绝次数、平均排队时间和重建耗时
+     */
+    @GetMapping("rebuild/stats")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheClient.queryRebuildStats());
+    }
+
+    /**
+     * 开始预热店铺缓存、GEO、店铺类型和秒杀库存，用于redis清空或新部署后
+     */
+    @PostMapping("warmup")
+    public Result warmup() {
+        if (!cacheWarmupTask.start()) {
+            return Result.fail("预热正在执行中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询预热进度
+     */
+    @GetMapping("warmup/status")
+    public Result queryWarmupStatus() {
+        return Result.ok(cacheWarmupTask.status());
+    }
+}
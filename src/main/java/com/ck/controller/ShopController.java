@@ -1,12 +1,9 @@
 package com.ck.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.ck.dto.Result;
 import com.ck.entity.Shop;
 import com.ck.service.IShopService;
-import com.ck.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -44,9 +41,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,6 +59,8 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param filter 筛选条件，例如 score>=40;avgPrice<=100;open=now;distance<=3000，格式见 ShopQuery
+     * @param sort 排序，例如 score:desc、avgPrice、distance
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -71,9 +68,47 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "filter", required = false) String filter,
+            @RequestParam(value = "sort", required = false) String sort
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, filter, sort);
+    }
+
+    /**
+     * 按距离滚动查询附近的商铺，从上一页最后一个商铺继续
+     * @param typeId 商铺类型
+     * @param lastDistance 上一页返回的 lastDistance，第一页不传
+     * @param lastId 上一页返回的 lastId，第一页不传
+     * @param seen 上一页返回的 seen，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/nearby")
+    public Result queryShopByTypeAfter(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "lastDistance", required = false) Double lastDistance,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "seen", required = false) Integer seen
+    ) {
+        return shopService.queryShopByTypeAfter(typeId, x, y, lastDistance, lastId, seen);
+    }
+
+    /**
+     * 查询离用户最近的k个商铺，不限距离
+     * @param typeId 商铺类型
+     * @param k 数量，最多10个
+     * @return 商铺列表，按距离排序
+     */
+    @GetMapping("/of/type/nearest")
+    public Result queryNearestShops(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "k", defaultValue = "5") Integer k
+    ) {
+        return shopService.queryNearestShops(typeId, x, y, k);
     }
 
     /**
@@ -87,11 +122,24 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 按名称和商圈搜索商铺，按匹配程度、评分和距离排序，从上一页最后一个商铺继续
+     * @param name 关键字
+     * @param lastScore 上一页返回的 lastScore，第一页不传
+     * @param lastId 上一页返回的 lastId，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/search")
+    public Result searchShop(
+            @RequestParam("name") String name,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "lastScore", required = false) Double lastScore,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.searchShop(name, x, y, lastScore, lastId);
     }
 }
@@ -41,8 +41,17 @@ public class VoucherController {
      */
     @PostMapping("seckill")
     public Result addSeckillVoucher(@RequestBody Voucher voucher) {
-        voucherService.addSeckillVoucher(voucher);
-        return Result.ok(voucher.getId());
+        return voucherService.addSeckillVoucher(voucher);
+    }
+
+    /**
+     * 查询秒杀券剩余库存，汇总所有库存分片
+     * @param voucherId 优惠券id
+     * @return 剩余库存
+     */
+    @GetMapping("/seckill/stock/{id}")
+    public Result querySeckillStock(@PathVariable("id") Long voucherId) {
+        return voucherService.querySeckillStock(voucherId);
     }
 
     /**
@@ -4,10 +4,13 @@ package com.ck.controller;
 import com.ck.dto.Result;
 import com.ck.service.IVoucherOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * <p>
@@ -28,4 +31,46 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理状态：queued 排队中、persisted 已下单、failed 下单失败
+     * @param orderId 订单id
+     * @param wait 订单仍在排队时最多等待的毫秒数，0表示立即返回
+     * @return 订单状态
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> queryOrderStatus(
+            @PathVariable("id") Long orderId,
+            @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        return voucherOrderService.queryOrderStatus(orderId, wait);
+    }
+
+    /**
+     * 查询订单消息队列的积压情况
+     * @return 消息总数、未读取数、未ACK数
+     */
+    @GetMapping("stream/stats")
+    public Result queryOrderStreamStats() {
+        return voucherOrderService.queryOrderStreamStats();
+    }
+
+    /**
+     * 查询死信队列中的订单消息
+     * @param count 查询数量
+     * @return 死信消息列表
+     */
+    @GetMapping("dlq")
+    public Result queryDeadLetters(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return voucherOrderService.queryDeadLetters(count);
+    }
+
+    /**
+     * 将死信队列中的订单消息重新投递到订单队列
+     * @param count 重新投递的数量
+     * @return 实际重新投递的数量
+     */
+    @PostMapping("dlq/replay")
+    public Result replayDeadLetters(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return voucherOrderService.replayDeadLetters(count);
+    }
 }
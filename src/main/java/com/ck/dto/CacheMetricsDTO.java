@@ -0,0 +1,51 @@
+package com.ck.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+public class CacheMetricsDTO {
+    /**
+     * 缓存命名空间，即key前缀，例如 cache:shop:
+     */
+    private String namespace;
+    /**
+     * 命中近端缓存或本地固定的热点数据
+     */
+    private Long localHits;
+    /**
+     * 命中redis
+     */
+    private Long redisHits;
+    /**
+     * 命中空值，数据库中不存在
+     */
+    private Long nullHits;
+    private Long misses;
+    /**
+     * (localHits + redisHits + nullHits) / 查询总数
+     */
+    private Double hitRatio;
+    /**
+     * 返回逻辑过期数据的次数
+     */
+    private Long staleServes;
+    /**
+     * 提交异步重建（过期重建和提前刷新）的次数
+     */
+    private Long rebuilds;
+    /**
+     * 未命中时查询数据库的次数和平均耗时
+     */
+    private Long loads;
+    private Double avgLoadMillis;
+    /**
+     * 查询数据库耗时的分布，key为耗时上限（毫秒），value为次数
+     */
+    private Map<String, Long> loadMillis;
+    /**
+     * 从redis读取的数据大小分布，key为大小上限（字节），value为次数
+     */
+    private Map<String, Long> payloadBytes;
+}
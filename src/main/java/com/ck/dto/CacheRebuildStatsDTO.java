@@ -0,0 +1,48 @@
+package com.ck.dto;
+
+import lombok.Data;
+
+@Data
+public class CacheRebuildStatsDTO {
+    /**
+     * 重建线程数
+     */
+    private Integer poolSize;
+    /**
+     * 正在执行的重建任务数
+     */
+    private Integer active;
+    /**
+     * 排队中的重建任务数
+     */
+    private Integer queueSize;
+    /**
+     * 队列容量
+     */
+    private Integer queueCapacity;
+    /**
+     * 已完成的重建次数（包括失败）
+     */
+    private Long completed;
+    private Long failed;
+    /**
+     * 队列已满被拒绝的次数，被拒绝时继续返回过期数据
+     */
+    private Long rejected;
+    /**
+     * 同一个key已在排队而被合并的次数
+     */
+    private Long deduplicated;
+    /**
+     * 平均排队时间，毫秒
+     */
+    private Double avgQueueMillis;
+    /**
+     * 平均重建耗时，毫秒
+     */
+    private Double avgRebuildMillis;
+    /**
+     * 最大重建耗时，毫秒
+     */
+    private Long maxRebuildMillis;
+}
@@ -0,0 +1,54 @@
+package com.ck.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CacheWarmupStatusDTO {
+    /**
+     * IDLE 未执行，RUNNING 执行中，DONE 已完成，FAILED 有步骤失败
+     */
+    private String state;
+    /**
+     * 开始时间，毫秒时间戳
+     */
+    private Long startTime;
+    /**
+     * 已执行的时间，毫秒
+     */
+    private Long elapsedMillis;
+    /**
+     * 需要预热的店铺总数
+     */
+    private Long shopTotal;
+    /**
+     * 已写入缓存和GEO的店铺数
+     */
+    private Long shopWarmed;
+    /**
+     * 已写入的分页数
+     */
+    private Long pages;
+    /**
+     * 写入GEO的店铺类型数
+     */
+    private Integer geoTypes;
+    /**
+     * 写入的店铺类型数量
+     */
+    private Long shopTypes;
+    /**
+     * 初始化库存的秒杀券数，redis中已有库存的秒杀券不计入
+     */
+    private Long vouchers;
+    /**
+     * redis中没有库存、但已经有订单而没有初始化库存的秒杀券id，需要人工处理
+     */
+    private List<Long> skippedVouchers;
+    /**
+     * 失败的步骤数
+     */
+    private Long errors;
+    private String lastError;
+}
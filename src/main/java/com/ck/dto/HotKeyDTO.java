@@ -0,0 +1,20 @@
+package com.ck.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    private String key;
+    /**
+     * 当前窗口衰减后的访问次数估计值
+     */
+    private Long count;
+    /**
+     * 是否超过阈值，已固定在本地
+     */
+    private Boolean pinned;
+}
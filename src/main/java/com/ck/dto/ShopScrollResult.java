@@ -0,0 +1,23 @@
+package com.ck.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ShopScrollResult {
+    private List<?> list;
+    /**
+     * 本页最后一个店铺的距离和id，作为下一页的游标，没有更多数据时为null
+     */
+    private Double lastDistance;
+    private Long lastId;
+    /**
+     * 按距离滚动时为包括本页在内已经返回的店铺数量，与游标一起传给下一页
+     */
+    private Integer seen;
+    /**
+     * 按名称搜索时为本页最后一个店铺的得分，与 lastId 一起作为下一页的游标
+     */
+    private Double lastScore;
+}
@@ -0,0 +1,31 @@
+package com.ck.dto;
+
+import lombok.Data;
+
+@Data
+public class StreamStatsDTO {
+    /**
+     * 订单stream的数量，每个秒杀券分片一个
+     */
+    private Integer streams;
+    /**
+     * 所有订单stream中的消息总数（XLEN）
+     */
+    private Long length;
+    /**
+     * 消费者组尚未读取的消息数
+     */
+    private Long lag;
+    /**
+     * 已读取但尚未ACK的消息数
+     */
+    private Long pending;
+    /**
+     * 是否超过阈值，超过后秒杀请求直接拒绝
+     */
+    private Boolean overloaded;
+    /**
+     * 采样时间，毫秒时间戳
+     */
+    private Long sampledAt;
+}
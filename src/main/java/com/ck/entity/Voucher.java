@@ -78,6 +78,18 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分片数，超热秒杀券可拆分成多个子库存，不填则不分片
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 每人限购数量，不填则一人一单
+     */
+    @TableField(exist = false)
+    private Integer limitPerUser;
+
     /**
      * 生效时间
      */
@@ -2,6 +2,9 @@ package com.ck.mapper;
 
 import com.ck.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行 INSERT IGNORE，依赖主键（订单id）保证重复投递的消息不会重复下单
+     * @return 实际插入的行数，重复的订单被忽略
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
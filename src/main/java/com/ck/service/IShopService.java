@@ -16,7 +16,17 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String filter, String sort);
+
+    Result queryShopByTypeAfter(Integer typeId, Double x, Double y, Double lastDistance, Long lastId, Integer seen);
+
+    Result queryNearestShops(Integer typeId, Double x, Double y, Integer k);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result searchShop(String name, Double x, Double y, Double lastScore, Long lastId);
 }
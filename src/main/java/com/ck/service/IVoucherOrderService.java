@@ -3,6 +3,10 @@ package com.ck.service;
 import com.ck.dto.Result;
 import com.ck.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -16,5 +20,19 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    Result queryOrderStreamStats();
+
+    Result queryDeadLetters(Integer count);
+
+    Result replayDeadLetters(Integer count);
+
+    DeferredResult<Result> queryOrderStatus(Long orderId, Long waitMillis);
+
      void createVoucherOrder(VoucherOrder voucherOrder);
+
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    void handleOrderRecords(List<MapRecord<String, Object, Object>> records);
+
+    void deadLetterOrders(List<MapRecord<String, Object, Object>> records, String reason);
 }
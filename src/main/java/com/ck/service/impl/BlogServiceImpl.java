@@ -11,17 +11,25 @@ import com.ck.mapper.BlogMapper;
 import com.ck.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.ck.service.IUserService;
+import com.ck.utils.CacheClient;
 import com.ck.utils.SystemConstants;
 import com.ck.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.ck.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.ck.utils.RedisConstants.CACHE_USER_KEY;
+import static com.ck.utils.RedisConstants.CACHE_USER_TTL;
 
 /**
  * <p>
@@ -40,6 +48,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
     /**
      * 根据 id 查询博客信息
      * @param id
@@ -73,9 +84,22 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        // 批量查询用户，一次 MGET，未命中的再批量查询数据库
+        Set<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toCollection(LinkedHashSet::new));
+        List<UserDTO> users = cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                this::listUserDTOs, UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+        Map<Long, UserDTO> userMap = new HashMap<>(users.size() * 2);
+        users.forEach(user -> {
+            if (user != null) {
+                userMap.put(user.getId(), user);
+            }
+        });
         records.forEach(blog -> {
-            this.queryBlogUser(blog);
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
             this.isBlogLiked(blog);
         });
 
@@ -89,6 +113,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         blog.setIcon(user.getIcon());
     }
 
+    private List<UserDTO> listUserDTOs(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toList());
+    }
+
     private void isBlogLiked(Blog blog) {
         // 1. 获取登录用户
         UserDTO user = UserHolder.getUser();
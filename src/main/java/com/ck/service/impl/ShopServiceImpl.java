@@ -1,34 +1,40 @@
 package com.ck.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.ck.dto.Result;
+import com.ck.dto.ShopScrollResult;
 import com.ck.entity.Shop;
 import com.ck.mapper.ShopMapper;
 import com.ck.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.ck.utils.CacheClient;
-import com.ck.utils.RedisConstants;
+import com.ck.utils.CacheInvalidator;
+import com.ck.utils.LocalShopGeoIndex;
 import com.ck.utils.RedisData;
+import com.ck.utils.ShopGeoIndex;
+import com.ck.utils.ShopLocator;
+import com.ck.utils.ShopQuery;
+import com.ck.utils.ShopQueryEngine;
+import com.ck.utils.ShopSearchIndex;
 import com.ck.utils.SystemConstants;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.ck.utils.RedisConstants.*;
@@ -50,6 +56,31 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private LocalShopGeoIndex localShopGeoIndex;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Resource
+    private ShopQueryEngine shopQueryEngine;
+
+    // 按距离查询店铺的实现，由 shop.geo.index 选择
+    private ShopLocator shopLocator;
+
+    @PostConstruct
+    private void init(){
+        shopLocator = localShopGeoIndex.isEnabled() ? localShopGeoIndex : shopGeoIndex;
+        // 用全部店铺id构建布隆过滤器，拦截不存在的店铺id
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, () -> listObjs(new QueryWrapper<Shop>().select("id")));
+    }
+
     /**
      * 添加商铺信息缓存
      */
@@ -65,7 +96,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //逻辑过期解决缓存击穿
         //Shop shop = queryWithLogicalExpire(id);
         Shop shop = cacheClient
-                .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+                .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
 
         if(shop == null){
             return Result.fail("店铺不存在！");
@@ -141,63 +172,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     /**
      * 互斥锁解决缓存击穿的逻辑
+     * 本节点的并发未命中合并为一次加载，只有一个请求竞争redis互斥锁，其余请求等待结果
      * @return
      */
     public Shop queryWithMutex(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        //1. 从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //2. 判断是否存在
-        if(StrUtil.isNotBlank(shopJson)){
-            //3. 缓存命中，直接返回商铺信息
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 解决缓存穿透，命中空值，说明店铺不存在，返回错误信息
-        if(shopJson != null){ //说明 shopJson = ""，空字符串，店铺不存在
-            return null;
-        }
-
-        Shop shop = null;
-        try {
-            //4. 未命中缓存，实现缓存重建
-            //4.1 尝试获取互斥锁
-            boolean flag = tryLock(LOCK_SHOP_KEY + id);
-            //4.2 判断是否获取成功
-            if(!flag){
-                //4.3 没获取到，休眠一段时间，并重试
-                Thread.sleep(50);
-                queryWithMutex(id);
-            }
-            //4.4 获取到锁，再次检测redis缓存是否存在，做 DoubleCheck，如果缓存存在了，无需缓存重建
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            if(StrUtil.isNotBlank(shopJson)){
-                return JSONUtil.toBean(shopJson, Shop.class);
-            }
-            if(shopJson != null){
-                return null;
-            }
-            //4.5 根据id从数据库中查询
-            shop = getById(id);
-            // 模拟重建的延时
-            Thread.sleep(200);
-            //5.1 查询数据库的商铺不存在
-            if(shop == null){
-                // 被动解决缓存穿透，商铺不存在，就存入空值
-                stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-            //5.2  商铺存在，将商铺数据写入到redis
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //6. 释放互斥锁
-            unlock(LOCK_SHOP_KEY + id);
-        }
-
-        //7. 返回商铺信息
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
@@ -265,6 +244,23 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
     }
 
+    /**
+     * 新增店铺，并把店铺id加入布隆过滤器和GEO
+     * @param shop
+     * @return 店铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        //1. 写入数据库
+        save(shop);
+        //2. 加入布隆过滤器
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        //3. 加入GEO，立即出现在附近店铺中
+        shopGeoIndex.add(shop);
+        //4. 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     /**
      * 缓存更新：更改数据库的信息，并删除缓存，实现数据的一致性
      * @param shop
@@ -277,15 +273,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("店铺id不能为空");
         }
-        //1. 更改数据库信息
+        //1. 查询修改前的店铺，用于同步GEO
+        Shop old = getById(id);
+        if(old == null){
+            return Result.fail("店铺不存在");
+        }
+        //2. 更改数据库信息
         updateById(shop);
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //3. 事务提交后重写逻辑过期的缓存，同时删除各节点的近端缓存，延迟后再重写一次
+        //   店铺详情按逻辑过期查询，缓存未命中时直接返回空，不能只删除缓存
+        cacheInvalidator.refreshAfterCommit(CACHE_SHOP_KEY + id, () -> getById(id), CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        //4. 事务提交后同步GEO，类型或坐标变化时生效
+        shopGeoIndex.update(old, shop);
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String filter, String sort) {
+        //0.带筛选或排序条件时交给查询引擎
+        if(StrUtil.isNotBlank(filter) || StrUtil.isNotBlank(sort)){
+            return queryShopByFilter(typeId, current, x, y, filter, sort);
+        }
         //1.判断是否需要根据坐标查询
         if(x == null || y == null){
             // 不需要坐标查询，按数据库查询
@@ -294,44 +302,131 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 返回数据
             return Result.ok(page.getRecords());
         }
-        //2.计算分页参数
-        int from = (current - 1) *  SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        //3.查询redis，按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo() // GEOSEARCH Key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
-                .search(key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
-        //4.解析出id
-        if(results == null){
-            return Result.ok();
+        //2.按照距离排序，只返回当前页。结果：shopId -> distance
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        LinkedHashMap<Long, Double> distances = shopLocator.search(
+                Long.valueOf(typeId), x, y, from, SystemConstants.DEFAULT_PAGE_SIZE);
+        //3.查询店铺并设置距离
+        return Result.ok(queryShopsWithDistance(distances));
+    }
+
+    /**
+     * 按筛选条件和排序查询一页店铺
+     */
+    private Result queryShopByFilter(Integer typeId, Integer current, Double x, Double y, String filter, String sort) {
+        if(!shopQueryEngine.isEnabled()){
+            return Result.fail("暂不支持筛选和排序");
+        }
+        //1.解析筛选条件和排序
+        ShopQuery query;
+        try {
+            query = ShopQuery.parse(filter, sort, x != null && y != null);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+        //2.查询当前页。结果：shopId -> distance
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        LinkedHashMap<Long, Double> distances = shopQueryEngine.query(
+                Long.valueOf(typeId), x, y, query, from, SystemConstants.DEFAULT_PAGE_SIZE);
+        //3.查询店铺并设置距离
+        return Result.ok(queryShopsWithDistance(distances));
+    }
+
+    @Override
+    public Result queryShopByTypeAfter(Integer typeId, Double x, Double y, Double lastDistance, Long lastId, Integer seen) {
+        //1.从上一页最后一个店铺的距离和id继续，只返回一页
+        int before = lastDistance == null || seen == null ? 0 : seen;
+        LinkedHashMap<Long, Double> distances = shopLocator.searchAfter(
+                Long.valueOf(typeId), x, y, lastDistance, lastId, before, SystemConstants.DEFAULT_PAGE_SIZE);
+        //2.查询店铺并设置距离
+        ShopScrollResult result = new ShopScrollResult();
+        result.setList(queryShopsWithDistance(distances));
+        //3.本页满时返回下一页的游标
+        if(distances.size() == SystemConstants.DEFAULT_PAGE_SIZE){
+            Map.Entry<Long, Double> last = null;
+            for (Map.Entry<Long, Double> entry : distances.entrySet()) {
+                last = entry;
+            }
+            result.setLastId(last.getKey());
+            result.setLastDistance(last.getValue());
+            result.setSeen(before + distances.size());
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryNearestShops(Integer typeId, Double x, Double y, Integer k) {
+        //1.查询最近的k个店铺，不限半径，k最多为 MAX_PAGE_SIZE
+        int limit = Math.min(Math.max(k, 1), SystemConstants.MAX_PAGE_SIZE);
+        LinkedHashMap<Long, Double> distances = shopLocator.nearest(Long.valueOf(typeId), x, y, limit);
+        //2.查询店铺并设置距离
+        return Result.ok(queryShopsWithDistance(distances));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.没有关键字或没有启用搜索索引时按数据库分页查询
+        if(StrUtil.isBlank(name) || !shopSearchIndex.isEnabled()){
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2.查询搜索索引，按得分排序，跳过前面的页
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        List<ShopSearchIndex.Hit> hits = shopSearchIndex.search(
+                name, null, null, null, null, from, SystemConstants.MAX_PAGE_SIZE);
+        //3.查询店铺
+        return Result.ok(queryShopsOfHits(hits));
+    }
+
+    @Override
+    public Result searchShop(String name, Double x, Double y, Double lastScore, Long lastId) {
+        //1.查询搜索索引，按得分和距离排序，从上一页最后一个店铺的得分和id继续
+        List<ShopSearchIndex.Hit> hits = shopSearchIndex.search(
+                name, x, y, lastScore, lastId, 0, SystemConstants.MAX_PAGE_SIZE);
+        //2.查询店铺
+        ShopScrollResult result = new ShopScrollResult();
+        result.setList(queryShopsOfHits(hits));
+        //3.本页满时返回下一页的游标
+        if(hits.size() == SystemConstants.MAX_PAGE_SIZE){
+            ShopSearchIndex.Hit last = hits.get(hits.size() - 1);
+            result.setLastScore(last.getScore());
+            result.setLastId(last.getShopId());
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 按搜索结果的顺序查询店铺，有坐标时设置距离
+     */
+    private List<Shop> queryShopsOfHits(List<ShopSearchIndex.Hit> hits) {
+        LinkedHashMap<Long, Double> distances = new LinkedHashMap<>(hits.size() * 2);
+        for (ShopSearchIndex.Hit hit : hits) {
+            distances.put(hit.getShopId(), hit.getDistance());
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if(list.size() <= from){
-            // 没有下一页了，直接结束
-            return Result.ok(Collections.emptyList());
+        return queryShopsWithDistance(distances);
+    }
+
+    /**
+     * 根据id批量查询shop缓存，一次 MGET，未命中的再批量查询数据库，按传入的顺序返回并设置距离
+     */
+    private List<Shop> queryShopsWithDistance(LinkedHashMap<Long, Double> distances) {
+        if(distances.isEmpty()){
+            return Collections.emptyList();
         }
-        //4.1 截取from - end 的部分
-        ArrayList<Long> ids = new ArrayList<>(list.size());
-        HashMap<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            //4.2 获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //4.3 获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-
-        //5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        List<Shop> cached = cacheClient.queryBatchWithLogicalExpire(CACHE_SHOP_KEY, new ArrayList<>(distances.keySet()),
+                Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached) {
+            if (shop == null) {
+                continue;
+            }
+            // 近端缓存中的对象是共享的，复制后再设置距离
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distances.get(shop.getId()));
+            shops.add(copy);
         }
-        //6.返回
-        return Result.ok(shops);
+        return shops;
     }
 }
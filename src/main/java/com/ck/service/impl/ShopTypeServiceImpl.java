@@ -1,13 +1,12 @@
 package com.ck.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.ck.entity.ShopType;
 import com.ck.mapper.ShopTypeMapper;
 import com.ck.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.ck.utils.CacheClient;
+import com.ck.utils.CacheMetrics;
 import com.ck.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
@@ -25,7 +24,10 @@ import java.util.List;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
 
     /**
      * 给店铺类型添加缓存
@@ -35,20 +37,22 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     public List<ShopType> queryAll() {
 
         //1. 根据redis查询店铺类型
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPTYPE_KEY);
+        List<ShopType> cached = cacheClient.getList(RedisConstants.CACHE_SHOPTYPE_KEY, ShopType.class);
         //2. 存在，直接返回店铺类型的列表
-        if(StrUtil.isNotBlank(shopTypeJson)){
-           return JSONUtil.parseArray(shopTypeJson).toList(ShopType.class);
+        if(cached != null){
+           return cached;
         }
-        //3. 不存在，到数据库中查询
+        //3. 不存在，到数据库中查询，记录耗时
+        long start = System.nanoTime();
         List<ShopType> shopTypeList = list();
+        cacheMetrics.recordLoad(RedisConstants.CACHE_SHOPTYPE_KEY, System.nanoTime() - start);
         //4. 数据库中不存在，返回404错误
         if(shopTypeList == null){
             return null;
         }
         //5. 数据库中存在
         //6. 将店铺类型写入到redis作为缓存
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOPTYPE_KEY, String.valueOf(JSONUtil.parse(shopTypeList)));
+        cacheClient.setList(RedisConstants.CACHE_SHOPTYPE_KEY, shopTypeList, ShopType.class);
         //7. 返回店铺类型列表
         return shopTypeList;
     }
@@ -11,6 +11,7 @@ import com.ck.dto.UserDTO;
 import com.ck.entity.User;
 import com.ck.mapper.UserMapper;
 import com.ck.service.IUserService;
+import com.ck.utils.CacheInvalidator;
 import com.ck.utils.RedisConstants;
 import com.ck.utils.RegexUtils;
 import com.ck.utils.SystemConstants;
@@ -46,6 +47,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
+
     @Override
     public Result sendCode(String phone) {
         //1. 校验手机号
@@ -182,6 +186,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName(SystemConstants.USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         //2. 保存用户
         save(user);
+        //3. 删除之前查询该id时缓存的空值
+        cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + user.getId());
         return user;
     }
 }
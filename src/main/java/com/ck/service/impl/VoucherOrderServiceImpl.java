@@ -1,27 +1,57 @@
 package com.ck.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import com.ck.dto.Result;
 import com.ck.entity.VoucherOrder;
 import com.ck.mapper.VoucherOrderMapper;
 import com.ck.service.ISeckillVoucherService;
 import com.ck.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.ck.utils.HotKeyDetector;
+import com.ck.utils.OrderStatusStore;
+import com.ck.utils.OrderStreamMonitor;
 import com.ck.utils.RedisIdWorker;
+import com.ck.utils.SeckillSoldOutRegistry;
+import com.ck.utils.SeckillStockRouter;
 import com.ck.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.ck.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.ck.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.ck.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.ck.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -45,96 +75,135 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private OrderStreamMonitor orderStreamMonitor;
+
+    @Resource
+    private OrderStatusStore orderStatusStore;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    // 查询订单状态时长轮询的最长时间
+    private static final long MAX_STATUS_WAIT_MILLIS = 30000L;
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setResultType(List.class);
     }
 
+    // lua脚本结果码对应的提示信息
+    private static final String[] SECKILL_FAIL_MESSAGES = {null, "库存不足", "超出限购数量", "秒杀尚未开始！", "秒杀已经结束！"};
+
+
+    /**
+     * 每个节点启动的消费者数量，消费者名称在集群内唯一
+     */
+    @Value("${seckill.order.consumers:4}")
+    private int consumerCount;
+
+    /**
+     * 每次XREADGROUP读取的最大消息数，即一次批量落库的订单数
+     */
+    @Value("${seckill.order.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 所有订单stream都没有新消息时，消费者等待该时间后再读取下一轮
+     */
+    @Value("${seckill.order.idle-millis:50}")
+    private long idleMillis;
+
+    // 线程池，每个消费者占用一个线程
+    private ExecutorService seckillOrderExecutor;
 
-    // 线程池
-    public static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 停机标记，消费者处理完当前批次后退出循环
+    private volatile boolean running = true;
 
-    /*@PostConstruct
+    @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new voucherOrderHandler());
+        // 共享的订单stream，用于重新投递死信消息，并消费升级前写入的消息
+        seckillStockRouter.registerOrderStream(SECKILL_ORDER_STREAM);
+        // 消费者名称：进程标识(pid@host) + 序号，保证多节点、多线程时不重复
+        String nodeName = ManagementFactory.getRuntimeMXBean().getName();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount, new NamedThreadFactory("seckill-order-", false));
+        for (int i = 0; i < consumerCount; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(nodeName + "-c" + i));
+        }
     }
 
-    private class voucherOrderHandler implements Runnable{
-        String queueName = "stream.orders";
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 不再读取新消息，等待正在处理的批次落库并ACK后再退出
+        running = false;
+        seckillOrderExecutor.shutdown();
+        if(!seckillOrderExecutor.awaitTermination(idleMillis + 10000, TimeUnit.MILLISECONDS)){
+            log.warn("订单消费者未能在超时时间内退出，未ACK的消息将留在pending-list中");
+            seckillOrderExecutor.shutdownNow();
+        }
+    }
 
-        @Override
-        public void run() {
-            while (true){
-                try {
-                    //1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    //2. 判断消息是获取成功
-                    //2.1 获取失败，说明没有消息，继续下一次循环
-                    if(list == null || list.isEmpty()){
-                        continue;
-                    }
-                    //3. 解析消息中的订单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //4. 获取成功可以下单
-                    handleVoucherOrder(voucherOrder);
+    private class VoucherOrderHandler implements Runnable{
 
-                    //5. ACK确认 XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    handlePendingList();
-                }
+        private final Consumer consumer;
 
-            }
+        VoucherOrderHandler(String consumerName) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
         }
-        // 处理pending-list中的消息
-        private void handlePendingList() {
-            while (true){
+
+        @Override
+        public void run() {
+            while (running){
                 try {
-                    //1. 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0")));
-
-                    //2. 判断消息是获取成功
-                    //2.1 获取失败，说明pending-list中没有消息，退出循环
-                    if(list == null || list.isEmpty()){
-                        break;
+                    //1. 依次读取每个订单stream，分片的stream可能位于不同节点，不能在一条命令中读取
+                    int read = 0;
+                    for (String stream : seckillStockRouter.orderStreams()) {
+                        // XREADGROUP GROUP g1 c COUNT n STREAMS stream.orders:{voucherId:i} >
+                        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                                consumer,
+                                StreamReadOptions.empty().count(batchSize),
+                                StreamOffset.create(stream, ReadOffset.lastConsumed())
+                        );
+                        if(list == null || list.isEmpty()){
+                            continue;
+                        }
+                        read += list.size();
+                        //2. 整批下单并ACK
+                        handleRecords(list);
                     }
-                    //3. 解析消息中的订单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //4. 获取成功可以下单
-                    handleVoucherOrder(voucherOrder);
-
-                    //5. ACK确认 XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    //3. 所有stream都没有新消息，等待下一轮
+                    if(read == 0){
+                        Thread.sleep(idleMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
-                    log.error("处理pending-list订单异常", e);
+                    // 处理失败的消息留在pending-list中，由OrderPendingRecoveryTask认领重试，不阻塞后续消息
+                    log.error("处理订单异常", e);
                     try {
-                        Thread.sleep(20);
+                        Thread.sleep(1000);
                     } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
+                        Thread.currentThread().interrupt();
+                        return;
                     }
-
                 }
-
             }
         }
-    }*/
+
+        private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+            //1. 整批下单、ACK并更新订单状态
+            handleOrderRecords(list);
+        }
+    }
 
     /*private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
     private class voucherOrderHandler implements Runnable{
@@ -156,31 +225,188 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
 
+    // 代理对象（事务），消费者线程中无法通过AopContext获取
+    @Resource
+    @Lazy
     private IVoucherOrderService proxy;
 
     @Override
-    public Result seckillVoucher(Long voucherId) {
+    public Result queryOrderStreamStats() {
+        return Result.ok(orderStreamMonitor.getStats());
+    }
 
-        //3. 获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+    /**
+     * 落库一批订单消息，成功后整批ACK并更新订单状态
+     * 数据库库存不足时重试也不会成功，该优惠券的消息直接转入死信队列，其余消息重新落库
+     */
+    @Override
+    public void handleOrderRecords(List<MapRecord<String, Object, Object>> records) {
+        List<MapRecord<String, Object, Object>> remaining = records;
+        while (!remaining.isEmpty()) {
+            //1. 解析消息中的订单
+            List<VoucherOrder> voucherOrders = toOrders(remaining);
+            try {
+                //2. 一个事务内批量下单
+                proxy.createVoucherOrders(voucherOrders);
+            } catch (StockShortageException e) {
+                //3. 整批已回滚，库存不足的优惠券的消息转入死信队列，其余消息重新下单
+                String voucherId = e.getVoucherId().toString();
+                Map<Boolean, List<MapRecord<String, Object, Object>>> parts = remaining.stream()
+                        .collect(Collectors.partitioningBy(record -> voucherId.equals(record.getValue().get("voucherId"))));
+                deadLetterOrders(parts.get(true), e.getMessage());
+                remaining = parts.get(false);
+                continue;
+            }
+            //4. 整批ACK XACK stream.orders:{voucherId:i} g1 id1 id2 ...
+            acknowledge(remaining);
+            //5. 更新订单状态
+            orderStatusStore.markPersisted(voucherOrders);
+            return;
+        }
+    }
+
+    /**
+     * 转入死信队列：XADD stream.orders.dlq * ... 后 XACK 原消息，订单状态更新为失败
+     */
+    @Override
+    public void deadLetterOrders(List<MapRecord<String, Object, Object>> records, String reason) {
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = new HashMap<>(record.getValue());
+            value.put("sourceStream", record.getStream());
+            value.put("sourceId", record.getId().getValue());
+            value.put("reason", reason);
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, value);
+            log.error("订单消息转入死信队列，原因: {}, messageId: {}, 订单: {}", reason, record.getId(), record.getValue());
+        }
+        acknowledge(records);
+        for (VoucherOrder voucherOrder : toOrders(records)) {
+            orderStatusStore.markFailed(voucherOrder, "下单失败，请联系客服");
+        }
+    }
+
+    /**
+     * 按消息所在的stream分别ACK
+     */
+    private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+        Map<String, List<MapRecord<String, Object, Object>>> recordsByStream = records.stream()
+                .collect(Collectors.groupingBy(MapRecord::getStream));
+        recordsByStream.forEach((stream, list) -> {
+            RecordId[] recordIds = list.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, recordIds);
+        });
+    }
+
+    private List<VoucherOrder> toOrders(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        return voucherOrders;
+    }
 
+    /**
+     * 查询死信队列中最早的消息
+     */
+    @Override
+    public Result queryDeadLetters(Integer count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        return Result.ok(records == null ? Collections.emptyList() : records.stream()
+                .map(record -> {
+                    Map<Object, Object> value = new HashMap<>(record.getValue());
+                    value.put("dlqId", record.getId().getValue());
+                    return value;
+                })
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * 将死信队列中最早的消息重新投递到共享的订单stream XADD stream.orders * ... 并从死信队列删除
+     * 原来的分片stream可能已经随秒杀券一起清理，重新投递不经过lua脚本，不需要与库存在同一个slot
+     */
+    @Override
+    public Result replayDeadLetters(Integer count) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        if (records == null || records.isEmpty()) {
+            return Result.ok(0);
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = new HashMap<>(4);
+            value.put("voucherId", record.getValue().get("voucherId"));
+            value.put("userId", record.getValue().get("userId"));
+            value.put("id", record.getValue().get("id"));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, value);
+            stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_DLQ, record.getId());
+            orderStatusStore.markQueued(BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true));
+        }
+        log.info("重新投递死信订单 {} 条", records.size());
+        return Result.ok(records.size());
+    }
+
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, Long waitMillis) {
+        Long userId = UserHolder.getUser().getId();
+        return orderStatusStore.query(orderId, userId, Math.min(waitMillis, MAX_STATUS_WAIT_MILLIS));
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+
+        // 记录访问，热点券在 /cache/hot-keys 中可见
+        hotKeyDetector.record(SECKILL_STOCK_KEY + voucherId);
+        //0. 本地已标记售罄，直接拒绝，不访问redis
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //0.1 订单队列积压，暂停接收新的秒杀请求
+        if (orderStreamMonitor.isOverloaded()) {
+            return Result.fail("排队人数过多，请稍后再试");
+        }
         // 获取用户id
         Long userId = UserHolder.getUser().getId();
-        // 订单id
+        // 订单id，通过本地售罄校验后才生成；lua脚本需要把订单id原子地写入stream，因此仍在脚本之前生成
         long orderId = redisIdWorker.nextId("order");
 
-
-        //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        //1.执行lua脚本，从用户所属的库存分片开始，分片卖完则依次尝试相邻分片
+        //  脚本在一次调用内校验时间窗口、限购数量和库存
+        int shards = seckillStockRouter.shardCount(voucherId);
+        int homeShard = seckillStockRouter.homeShard(userId, shards);
+        int r = 1;
+        long bought = 0;
+        for (int i = 0; i < shards && r == 1; i++) {
+            int shard = (homeShard + i) % shards;
+            List<Long> result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(seckillStockRouter.stockKey(voucherId, shards, shard),
+                            seckillStockRouter.orderKey(voucherId, shards, shard),
+                            seckillStockRouter.voucherKey(voucherId, shards, shard),
+                            seckillStockRouter.purchaserBitmapKey(voucherId, shards, shard, userId),
+                            seckillStockRouter.orderStreamKey(voucherId, shards, shard),
+                            seckillStockRouter.purchaserBucketsKey(voucherId, shards, shard)),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId), String.valueOf(bought),
+                    String.valueOf(seckillStockRouter.purchaserBitOffset(userId)));
+            r = result.get(0).intValue();
+            // 累计用户在已尝试分片中的购买数量，限购数量跨分片生效
+            bought += result.get(1);
+        }
 
         //2.判断结果是否为0
-        int r = result.intValue();
-        //2.1 不为0，代表没有购买资格
+        //2.1 所有分片库存不足，标记售罄并通知其他节点
+        if (r == 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+        }
+        //2.2 不为0，代表没有购买资格
         if (r != 0) {
-            return Result.fail(r == 1 ? "库存不足" : "不可重复下单");
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
+        }
+
+        //3. 记录订单状态为排队中，状态key与库存不在同一个slot，不能在lua脚本中写入
+        try {
+            orderStatusStore.markQueuedIfAbsent(new VoucherOrder().setId(orderId).setUserId(userId).setVoucherId(voucherId));
+        } catch (Exception e) {
+            // 订单已经进入stream，状态在落库后写入
+            log.warn("记录订单状态失败，orderId: {}", orderId, e);
         }
 
         //4. 返回订单id
@@ -200,7 +426,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         //2.判断结果是否为0
         int r = result.intValue();
-        //2.1 不为0，代表没有购买资格
+        //2.1 所有分片库存不足，标记售罄并通知其他节点
+        if (r == 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+        }
+        //2.2 不为0，代表没有购买资格
         if (r != 0) {
             return Result.fail(r == 1 ? "库存不足" : "不可重复下单");
         }
@@ -222,25 +452,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        // 1. 获取用户
-        Long userId = voucherOrder.getUserId();
-        // 2. 创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 3. 获取锁
-        boolean isLock = lock.tryLock();
-        //4. 判断获取锁是否成功
-        if(!isLock){
-            log.error("不允许重复下单");
-            return;
-        }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
-        }
-    }
 /*    @Override
     public Result seckillVoucher(Long voucherId) {
 
@@ -300,26 +511,60 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     }*/
 
+    @Override
     @Transactional //事务只需要加在操作数据库的方法上即可
     public void createVoucherOrder(VoucherOrder voucherOrder) {
+        createVoucherOrders(Collections.singletonList(voucherOrder));
+    }
 
-        //5. 判断一人一单
-        Long userId = voucherOrder.getUserId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count > 0) {
-            log.error("用户已经购买过一次！");
-            return;
+    /**
+     * 批量创建订单：订单已经由lua脚本校验过时间、库存和限购数量，这里只负责落库
+     * 1. 按优惠券分组，每组一条多行 INSERT IGNORE，重复投递的消息因订单id主键冲突被忽略；
+     *    秒杀时一个批次通常只有一个优惠券，即整批只有一条insert
+     * 2. 每组按实际插入的行数执行一次 stock = stock - k
+     * 不再需要按用户加分布式锁，也不再逐条查询订单是否存在
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<VoucherOrder>> ordersByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            //1. 批量创建订单，已存在的订单被忽略
+            int count = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (count < entry.getValue().size()) {
+                log.warn("忽略重复订单 {} 条，voucherId: {}", entry.getValue().size() - count, voucherId);
+            }
+            if (count == 0) {
+                continue;
+            }
+            //2. 减库存，整组一次扣减
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
+                    .update();
+            if (!success) {
+                // 数据库库存与redis不一致，回滚整批，由调用方将该优惠券的消息转入死信队列
+                throw new StockShortageException(voucherId, count);
+            }
         }
+    }
 
-        //6. 库存充足，修改数据库，减库存，操作数据库
-        boolean success = seckillVoucherService.update().eq("voucher_id", voucherOrder.getVoucherId()).setSql("stock = stock - 1").update();
-        if (!success) {
-            // 扣减失败
-            log.error("库存不足");
-            return;
+    /**
+     * 数据库库存不足以扣减一组订单，重试不会成功
+     */
+    private static class StockShortageException extends RuntimeException {
+
+        private final Long voucherId;
+
+        StockShortageException(Long voucherId, int count) {
+            super("数据库库存不足，voucherId: " + voucherId + ", 订单数: " + count);
+            this.voucherId = voucherId;
         }
 
-        //7. 创建订单，操作数据库
-        save(voucherOrder);
+        Long getVoucherId() {
+            return voucherId;
+        }
     }
 }
@@ -7,15 +7,16 @@ import com.ck.mapper.VoucherMapper;
 import com.ck.entity.SeckillVoucher;
 import com.ck.service.ISeckillVoucherService;
 import com.ck.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.ck.utils.SeckillSoldOutRegistry;
+import com.ck.utils.SeckillStockRouter;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
 
-import static com.ck.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -31,7 +32,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -43,7 +47,17 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Override
     @Transactional
-    public void addSeckillVoucher(Voucher voucher) {
+    public Result addSeckillVoucher(Voucher voucher) {
+        // 校验秒杀信息，库存和时间窗口会写入redis供lua脚本校验
+        if (voucher.getStock() == null || voucher.getStock() < 0) {
+            return Result.fail("库存不能为空且不能小于0");
+        }
+        if (voucher.getBeginTime() == null || voucher.getEndTime() == null) {
+            return Result.fail("秒杀开始时间和结束时间不能为空");
+        }
+        if (!voucher.getEndTime().isAfter(voucher.getBeginTime())) {
+            return Result.fail("秒杀结束时间必须晚于开始时间");
+        }
         // 保存优惠券
         save(voucher);
         // 保存秒杀信息
@@ -53,7 +67,22 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀优惠券的库存信息到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀优惠券的库存、时间窗口和限购数量到redis中，按分片数拆分库存
+        int shards = voucher.getStockShards() == null ? 1 : voucher.getStockShards();
+        int limitPerUser = voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser();
+        seckillStockRouter.initStock(voucher.getId(), voucher.getStock(), shards,
+                toEpochSecond(voucher.getBeginTime()), toEpochSecond(voucher.getEndTime()), limitPerUser);
+        // 清除可能存在的售罄标记
+        seckillSoldOutRegistry.reset(voucher.getId());
+        return Result.ok(voucher.getId());
+    }
+
+    private long toEpochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    @Override
+    public Result querySeckillStock(Long voucherId) {
+        return Result.ok(seckillStockRouter.queryStock(voucherId));
     }
 }
@@ -0,0 +1,295 @@
+package com.ck.task;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.ck.dto.CacheWarmupStatusDTO;
+import com.ck.entity.SeckillVoucher;
+import com.ck.entity.Shop;
+import com.ck.entity.ShopType;
+import com.ck.entity.VoucherOrder;
+import com.ck.service.ISeckillVoucherService;
+import com.ck.service.IShopService;
+import com.ck.service.IShopTypeService;
+import com.ck.service.IVoucherOrderService;
+import com.ck.utils.CacheClient;
+import com.ck.utils.SeckillStockRouter;
+import com.ck.utils.ShopGeoIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ck.utils.RedisConstants.*;
+
+/**
+ * 缓存和索引预热，启动时自动执行，也可以通过管理接口在redis清空后手动执行
+ * 1. 按id分页读取 tb_shop，每页用管道写入逻辑过期的店铺缓存和按类型分组的GEO，分页并行写入
+ * 2. 同时写入店铺类型列表，以及未结束、redis中没有库存、还没有订单的秒杀券库存
+ * 3. 正在写入的分页数有上限，不会把整张表读入内存
+ * 4. 执行进度见 status()
+ */
+@Slf4j
+@Component
+public class CacheWarmupTask {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Value("${cache.warmup.on-startup:true}")
+    private boolean onStartup;
+
+    /**
+     * 每页读取的店铺数
+     */
+    @Value("${cache.warmup.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 并行写入的线程数
+     */
+    @Value("${cache.warmup.threads:4}")
+    private int threads;
+
+    // 执行预热的线程，同一时间只有一次预热
+    private final ExecutorService warmupExecutor =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("cache-warmup-", true));
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile String state = "IDLE";
+    private volatile long startTime;
+    private volatile long finishTime;
+    private volatile long shopTotal;
+    private final AtomicLong shopWarmed = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final Set<Long> geoTypes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong shopTypes = new AtomicLong();
+    private final AtomicLong vouchers = new AtomicLong();
+    private final Set<Long> skippedVouchers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile String lastError;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmupOnStartup() {
+        if (onStartup) {
+            start();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        warmupExecutor.shutdownNow();
+    }
+
+    /**
+     * 异步开始预热
+     * @return 已经有预热在执行时返回false
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        reset();
+        warmupExecutor.submit(() -> {
+            try {
+                warmup();
+            } catch (Exception e) {
+                fail("预热", e);
+            } finally {
+                finishTime = System.currentTimeMillis();
+                state = errors.get() > 0 ? "FAILED" : "DONE";
+                running.set(false);
+                log.info("缓存预热结束，耗时: {}ms，店铺: {}/{}，GEO类型: {}，店铺类型: {}，秒杀券: {}，跳过的秒杀券: {}，失败: {}",
+                        finishTime - startTime, shopWarmed.get(), shopTotal, geoTypes.size(),
+                        shopTypes.get(), vouchers.get(), skippedVouchers, errors.get());
+            }
+        });
+        return true;
+    }
+
+    public CacheWarmupStatusDTO status() {
+        CacheWarmupStatusDTO status = new CacheWarmupStatusDTO();
+        status.setState(state);
+        status.setStartTime(startTime);
+        long end = running.get() ? System.currentTimeMillis() : finishTime;
+        status.setElapsedMillis(startTime == 0 ? 0 : end - startTime);
+        status.setShopTotal(shopTotal);
+        status.setShopWarmed(shopWarmed.get());
+        status.setPages(pages.get());
+        status.setGeoTypes(geoTypes.size());
+        status.setShopTypes(shopTypes.get());
+        status.setVouchers(vouchers.get());
+        status.setSkippedVouchers(new ArrayList<>(skippedVouchers));
+        status.setErrors(errors.get());
+        status.setLastError(lastError);
+        return status;
+    }
+
+    private void reset() {
+        state = "RUNNING";
+        startTime = System.currentTimeMillis();
+        finishTime = 0;
+        shopTotal = 0;
+        shopWarmed.set(0);
+        pages.set(0);
+        geoTypes.clear();
+        shopTypes.set(0);
+        vouchers.set(0);
+        skippedVouchers.clear();
+        errors.set(0);
+        lastError = null;
+    }
+
+    private void warmup() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("cache-warmup-worker-", true));
+        try {
+            //1. 店铺类型和秒杀库存与店铺分页并行
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            futures.add(CompletableFuture.runAsync(() -> step("店铺类型", this::warmupShopTypes), workers));
+            futures.add(CompletableFuture.runAsync(() -> step("秒杀库存", this::warmupSeckillStock), workers));
+            //2. 按id分页读取店铺，每页交给一个线程写入，正在写入的分页数不超过线程数的2倍
+            shopTotal = shopService.count();
+            Semaphore inFlight = new Semaphore(threads * 2);
+            long lastId = 0;
+            while (true) {
+                List<Shop> page = shopService.query()
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + pageSize)
+                        .list();
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                inFlight.acquire();
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        step("店铺分页", () -> warmupShops(page));
+                    } finally {
+                        inFlight.release();
+                    }
+                }, workers));
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            //3. 等待所有步骤结束
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * 写入一页店铺的逻辑过期缓存和GEO
+     */
+    private void warmupShops(List<Shop> shops) {
+        //1. 店铺缓存
+        cacheClient.setBatchWithLogicalExpire(CACHE_SHOP_KEY, shops, Shop::getId, CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        //2. 按类型分组写入GEO
+        geoTypes.addAll(shopGeoIndex.addAll(shops));
+        pages.incrementAndGet();
+        shopWarmed.addAndGet(shops.size());
+    }
+
+    private void warmupShopTypes() {
+        List<ShopType> list = shopTypeService.list();
+        cacheClient.setList(CACHE_SHOPTYPE_KEY, list, ShopType.class);
+        shopTypes.set(list.size());
+    }
+
+    /**
+     * 未结束的秒杀券在redis中没有库存时按数据库库存初始化
+     * 1. 分片数和限购数量没有保存在数据库中，按不分片、一人一单初始化
+     * 2. 已经有订单的秒杀券不初始化：购买记录随redis一起丢失，重新初始化后同一用户可以再次下单，
+     *    而 tb_voucher_order 上没有唯一索引拦截重复订单；这些秒杀券记录在 skippedVouchers 中，由人工处理
+     */
+    private void warmupSeckillStock() {
+        //1. 未结束、redis中没有库存的秒杀券
+        List<SeckillVoucher> list = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list()
+                .stream()
+                .filter(voucher -> !seckillStockRouter.hasStock(voucher.getVoucherId()))
+                .collect(Collectors.toList());
+        if (list.isEmpty()) {
+            return;
+        }
+        //2. 其中已经有订单的秒杀券
+        Set<Long> ordered = voucherOrderService.query()
+                .select("DISTINCT voucher_id")
+                .in("voucher_id", list.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList()))
+                .list()
+                .stream()
+                .map(VoucherOrder::getVoucherId)
+                .collect(Collectors.toSet());
+        //3. 没有订单的按数据库库存初始化，有订单的跳过并记录
+        for (SeckillVoucher voucher : list) {
+            if (ordered.contains(voucher.getVoucherId())) {
+                skippedVouchers.add(voucher.getVoucherId());
+                log.warn("秒杀券已有订单，redis中的购买记录已丢失，不自动初始化库存，voucherId: {}", voucher.getVoucherId());
+                continue;
+            }
+            seckillStockRouter.initStock(voucher.getVoucherId(), voucher.getStock(), 1,
+                    toEpochSecond(voucher.getBeginTime()), toEpochSecond(voucher.getEndTime()), 1);
+            vouchers.incrementAndGet();
+        }
+    }
+
+    /**
+     * 执行一个步骤，失败时记录错误，不影响其他步骤
+     */
+    private void step(String name, Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (Exception e) {
+            fail(name, e);
+        }
+    }
+
+    private void fail(String name, Exception e) {
+        errors.incrementAndGet();
+        lastError = name + "失败：" + e.getMessage();
+        log.error("缓存预热的步骤失败：{}", name, e);
+    }
+
+    private static long toEpochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+}
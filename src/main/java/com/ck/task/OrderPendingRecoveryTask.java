@@ -0,0 +1,159 @@
+package com.ck.task;
+
+import com.ck.service.IVoucherOrderService;
+import com.ck.utils.SeckillStockRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ck.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单消息的pending-list恢复，依次处理每个订单stream
+ * 1. 定时扫描 XPENDING，认领（XCLAIM）空闲超过阈值的消息，包括已经宕机的消费者留下的消息
+ * 2. 认领的消息整批重试，整批失败时逐条重试，一条坏消息不会阻塞其他消息
+ * 3. 投递次数超过上限的消息转入死信队列 stream.orders.dlq 并ACK，可通过管理接口重新投递
+ * 4. 清理没有pending消息且长期空闲的消费者（重启前的旧节点）
+ */
+@Slf4j
+@Component
+public class OrderPendingRecoveryTask {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    /**
+     * 消息空闲超过该时间才会被认领，需大于正常处理一批订单的耗时
+     */
+    @Value("${seckill.order.recovery.min-idle-millis:30000}")
+    private long minIdleMillis;
+
+    /**
+     * 最大投递次数，超过后转入死信队列
+     */
+    @Value("${seckill.order.recovery.max-deliveries:5}")
+    private long maxDeliveries;
+
+    @Value("${seckill.order.batch-size:200}")
+    private int batchSize;
+
+    // 认领消息使用的消费者名称
+    private final String consumerName = ManagementFactory.getRuntimeMXBean().getName() + "-recovery";
+
+    @Scheduled(fixedDelayString = "${seckill.order.recovery.interval-millis:5000}")
+    public void recover() {
+        // 每个订单stream有自己的pending-list
+        for (String stream : seckillStockRouter.orderStreams()) {
+            recover(stream);
+            removeIdleConsumers(stream);
+        }
+    }
+
+    private void recover(String stream) {
+        try {
+            //1. 查询pending-list XPENDING stream.orders:{voucherId:i} g1 - + count
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(stream, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            if (pendingMessages == null || pendingMessages.isEmpty()) {
+                return;
+            }
+            //2. 筛选空闲超时的消息，按投递次数分成重试和死信两组
+            Map<RecordId, Long> deliveries = new HashMap<>();
+            List<RecordId> idleIds = new ArrayList<>();
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < minIdleMillis) {
+                    continue;
+                }
+                idleIds.add(pendingMessage.getId());
+                deliveries.put(pendingMessage.getId(), pendingMessage.getTotalDeliveryCount());
+            }
+            if (idleIds.isEmpty()) {
+                return;
+            }
+            //3. 认领消息 XCLAIM stream.orders:{voucherId:i} g1 recovery minIdle id...，其他节点已认领的不会重复返回
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                    stream, SECKILL_ORDER_GROUP, consumerName,
+                    Duration.ofMillis(minIdleMillis), idleIds.toArray(new RecordId[0]));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            List<MapRecord<String, Object, Object>> retries = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                // XCLAIM 会使投递次数加一
+                long deliveryCount = deliveries.getOrDefault(record.getId(), 0L) + 1;
+                if (deliveryCount > maxDeliveries) {
+                    voucherOrderService.deadLetterOrders(Collections.singletonList(record), "超过最大投递次数: " + deliveryCount);
+                } else {
+                    retries.add(record);
+                }
+            }
+            //4. 重试
+            retry(retries);
+        } catch (Exception e) {
+            log.error("恢复pending-list订单异常，stream: {}", stream, e);
+        }
+    }
+
+    private void retry(List<MapRecord<String, Object, Object>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            //1. 整批重试，数据库库存不足的订单直接转入死信队列
+            voucherOrderService.handleOrderRecords(records);
+            return;
+        } catch (Exception e) {
+            log.warn("批量重试订单失败，改为逐条重试，数量: {}", records.size(), e);
+        }
+        //2. 逐条重试，失败的消息留在pending-list中等待下一次认领
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                voucherOrderService.handleOrderRecords(Collections.singletonList(record));
+            } catch (Exception e) {
+                log.error("重试订单失败，messageId: {}", record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 删除没有pending消息、空闲时间超过认领阈值10倍的消费者
+     */
+    private void removeIdleConsumers(String stream) {
+        try {
+            StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream()
+                    .consumers(stream, SECKILL_ORDER_GROUP);
+            consumers.forEach(consumer -> {
+                if (consumer.pendingCount() == 0 && consumer.idleTimeMs() > minIdleMillis * 10) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(stream,
+                            Consumer.from(SECKILL_ORDER_GROUP, consumer.consumerName()));
+                }
+            });
+        } catch (Exception e) {
+            log.error("清理空闲消费者异常，stream: {}", stream, e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ck.task;
+
+import com.ck.utils.OrderStreamMonitor;
+import com.ck.utils.SeckillStockRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Set;
+
+import static com.ck.utils.RedisConstants.SECKILL_ACTIVE_KEY;
+
+/**
+ * 秒杀结束后清理redis中的秒杀数据
+ * 秒杀结束超过宽限期、且该券所有分片的订单stream都已处理完成（已落库，或落库失败转入死信队列）时，
+ * 删除库存、购买记录、秒杀信息和订单stream，避免这些key永久占用内存
+ * 死信消息重新投递时写入共享的订单stream，不依赖这些key
+ */
+@Slf4j
+@Component
+public class SeckillVoucherCleanTask {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    @Resource
+    private OrderStreamMonitor orderStreamMonitor;
+
+    /**
+     * 秒杀结束后至少等待该时间再清理，覆盖各节点与redis的时钟误差和仍在执行的请求
+     */
+    @Value("${seckill.clean.grace-millis:300000}")
+    private long graceMillis;
+
+    @Scheduled(fixedDelayString = "${seckill.clean.interval-millis:60000}")
+    public void cleanEndedVouchers() {
+        //1. 查询结束时间早于宽限期的秒杀券
+        long deadline = (System.currentTimeMillis() - graceMillis) / 1000;
+        Set<String> ended = stringRedisTemplate.opsForZSet().rangeByScore(SECKILL_ACTIVE_KEY, 0, deadline);
+        if (ended == null || ended.isEmpty()) {
+            return;
+        }
+        for (String id : ended) {
+            Long voucherId = Long.valueOf(id);
+            try {
+                //2. 判断所有分片的订单stream是否已经处理完成
+                if (!isDrained(voucherId)) {
+                    log.info("秒杀券的订单消息尚未处理完成，暂不清理，voucherId: {}", voucherId);
+                    continue;
+                }
+                //3. 删除redis中的秒杀数据
+                seckillStockRouter.removeStock(voucherId);
+                log.info("已清理结束的秒杀券，voucherId: {}", voucherId);
+            } catch (Exception e) {
+                log.error("清理秒杀券异常，voucherId: {}", voucherId, e);
+            }
+        }
+    }
+
+    private boolean isDrained(Long voucherId) {
+        int shards = seckillStockRouter.shardCount(voucherId);
+        for (int i = 0; i < shards; i++) {
+            if (!orderStreamMonitor.isDrained(seckillStockRouter.orderStreamKey(voucherId, shards, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ck.utils;
+
+import com.ck.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 管理接口的拦截器，只有配置的管理员用户可以访问
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            //没有用户，需要拦截，设置状态码
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminUserIds.contains(user.getId())) {
+            //不是管理员，没有权限
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+
+}
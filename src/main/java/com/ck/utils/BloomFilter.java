@@ -0,0 +1,63 @@
+package com.ck.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的布隆过滤器，线程安全
+ * 根据预计元素数量和误判率计算位数组大小和哈希函数个数，使用 murmur64 的高低32位做双重哈希
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashFunctions;
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        expectedInsertions = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.max((m + 63) / 64, 1));
+        this.bitSize = bits.length() * 64L;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(String value) {
+        long hash = MurmurHash.hash64(value.getBytes(StandardCharsets.UTF_8));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            setBit(index(h1 + i * h2));
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = MurmurHash.hash64(value.getBytes(StandardCharsets.UTF_8));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitSize;
+    }
+
+    private void setBit(long index) {
+        int i = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(i);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(i, old, old | mask));
+    }
+}
@@ -1,28 +1,56 @@
 package com.ck.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.ck.dto.CacheMetricsDTO;
+import com.ck.dto.CacheRebuildStatsDTO;
+import com.ck.dto.HotKeyDTO;
+import com.ck.utils.codec.CacheValueSerializer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.ck.utils.RedisConstants.*;
 
 /**
  * 封装缓存的数据库
- * 1. 将任意java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间（普通缓存）
- * 2. 将任意java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（针对热点缓存）
+ * 1. 将任意java对象序列化并存储在string类型的key中，并且可以设置TTL过期时间（普通缓存）
+ * 2. 将任意java对象序列化并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（针对热点缓存）
  * 3. 根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题（普通缓存）
  * 4. 根据指定的key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题（针对热点缓存）
+ * 5. 查询时先查进程内的近端缓存，命中时不访问redis、不做反序列化；
+ *    缓存被删除或重建时通过redis发布订阅通知所有节点删除近端缓存
+ * 6. 可以为某个key前缀注册布隆过滤器，查询前先判断id是否可能存在，不存在的id不访问redis和数据库；
+ *    新增的id通过发布订阅同步到各节点，通知丢失时由定期重建兜底，上次重建之后的新id再查询redis中的最近新增记录
+ * 7. 批量查询一批id：一次 MGET 查询redis，未命中的id一次批量查询数据库，再用管道一次写回redis
+ * 8. 序列化由 CacheValueSerializer 完成，逻辑过期时间写在数据头部，读写redis时直接使用字节
+ * 9. 写入时过期时间加上随机抖动；数据头部记录查询数据库的耗时，按 XFetch 在过期前概率性地提前异步刷新
+ * 10. 每次查询都交给 HotKeyDetector 计数，热点key的数据额外固定在本地
+ * 11. 按命名空间记录命中、未命中、空值、过期数据、重建次数和查询数据库的耗时，见 CacheMetrics
  */
 @Slf4j
 @Component
@@ -31,23 +59,322 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private CacheValueSerializer cacheValueSerializer;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Value("${cache.near.enabled:true}")
+    private boolean nearCacheEnabled;
+
+    /**
+     * 近端缓存的容量上限，按缓存数据的序列化长度计算
+     */
+    @Value("${cache.near.max-weight:33554432}")
+    private long nearCacheMaxWeight;
+
+    /**
+     * 近端缓存的最长存活时间，兜底丢失的失效通知
+     */
+    @Value("${cache.near.ttl-millis:10000}")
+    private long nearCacheTtlMillis;
+
+    private NearCache nearCache;
+
+    /**
+     * 布隆过滤器的误判率
+     */
+    @Value("${cache.bloom.fpp:0.01}")
+    private double bloomFpp;
+
+    /**
+     * 布隆过滤器的重建间隔，redis中最近新增的id保留两个间隔
+     */
+    @Value("${cache.bloom.rebuild-interval-millis:3600000}")
+    private long bloomRebuildIntervalMillis;
+
+    /**
+     * 过期时间的随机抖动比例，实际过期时间为 time * (1 + [0, ttlJitter))
+     */
+    @Value("${cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * 是否在过期前概率性地提前刷新
+     */
+    @Value("${cache.early-refresh.enabled:true}")
+    private boolean earlyRefreshEnabled;
+
+    /**
+     * XFetch 的 beta，越大越早刷新
+     */
+    @Value("${cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    // 未命中标记
+    private static final Object MISS = new Object();
+
+    // 空值标记，数据库中不存在的数据在redis中存为空字符串
+    private static final byte[] EMPTY = new byte[0];
+
+    // 互斥锁的key前缀，完整的锁key为 lock:{缓存key}，不同缓存的相同id不会争抢同一把锁
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
+    // 没有获取到互斥锁时，等待其他节点重建缓存的最大次数
+    private static final int MUTEX_MAX_ATTEMPTS = 10;
+
+    // 正在加载的key -> 加载结果
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    // key前缀 -> 布隆过滤器
+    private final Map<String, BloomGuard> bloomGuards = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init(){
+        nearCache = new NearCache(nearCacheMaxWeight, nearCacheTtlMillis);
+        // 订阅缓存失效通知，删除本地的近端缓存和固定的热点数据
+        redisMessageListenerContainer.addMessageListener(
+                (MessageListener) (message, pattern) -> invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 订阅新增id的通知，消息格式为 keyPrefix|id
+        redisMessageListenerContainer.addMessageListener((MessageListener) (message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf('|');
+            BloomGuard guard = bloomGuards.get(body.substring(0, index));
+            if (guard != null) {
+                guard.put(body.substring(index + 1));
+            }
+        }, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
+    }
+
+    /**
+     * 为key前缀注册布隆过滤器，并立即用数据库中已有的id构建
+     * @param idLoader 查询数据库中全部id
+     */
+    public void registerBloomFilter(String keyPrefix, Supplier<Collection<?>> idLoader){
+        BloomGuard guard = new BloomGuard(idLoader);
+        bloomGuards.put(keyPrefix, guard);
+        guard.rebuild();
+    }
+
+    /**
+     * 新增数据后把id加入布隆过滤器，并通知其他节点
+     * 同时记录到redis中最近新增的id里，通知丢失时其他节点仍能查到
+     */
+    public void addToBloomFilter(String keyPrefix, Object id){
+        BloomGuard guard = bloomGuards.get(keyPrefix);
+        if (guard == null) {
+            return;
+        }
+        guard.put(id.toString());
+        stringRedisTemplate.opsForZSet().add(CACHE_BLOOM_RECENT_KEY + keyPrefix, id.toString(), System.currentTimeMillis());
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL, keyPrefix + "|" + id);
+    }
+
+    /**
+     * 定期重建布隆过滤器，清除已删除的id，并按最新的数据量调整容量
+     */
+    @Scheduled(initialDelayString = "${cache.bloom.rebuild-interval-millis:3600000}",
+            fixedDelayString = "${cache.bloom.rebuild-interval-millis:3600000}")
+    public void rebuildBloomFilters(){
+        bloomGuards.forEach((keyPrefix, guard) -> {
+            try {
+                guard.rebuild();
+                // 两个重建间隔之前新增的id已经包含在重建后的过滤器中
+                stringRedisTemplate.opsForZSet().removeRangeByScore(CACHE_BLOOM_RECENT_KEY + keyPrefix,
+                        0, System.currentTimeMillis() - bloomRebuildIntervalMillis * 2);
+            } catch (Exception e) {
+                log.error("重建布隆过滤器失败，keyPrefix: {}", keyPrefix, e);
+            }
+        });
+    }
+
+    /**
+     * 判断id是否一定不存在，没有注册布隆过滤器时返回false
+     * 1. 本地过滤器判断不存在时直接拒绝，只需一次内存判断
+     * 2. 只有大于上次重建时最大id的数字id才再查询redis中最近新增的id，避免新增id的通知丢失后一直拒绝该id；
+     *    随机扫描已有范围内的id不访问redis
+     */
+    private boolean bloomRejects(String keyPrefix, Object id){
+        BloomGuard guard = bloomGuards.get(keyPrefix);
+        if (guard == null || guard.mightContain(id.toString())) {
+            return false;
+        }
+        if (!guard.isAfterLoaded(id)) {
+            return true;
+        }
+        Double createdAt = stringRedisTemplate.opsForZSet().score(CACHE_BLOOM_RECENT_KEY + keyPrefix, id.toString());
+        if (createdAt == null) {
+            return true;
+        }
+        // 补充到本地过滤器，之后不再查询redis
+        guard.put(id.toString());
+        return false;
+    }
+
+    private class BloomGuard {
+        private final Supplier<Collection<?>> idLoader;
+        private volatile BloomFilter current;
+        // 上次重建时从数据库加载的最大数字id，之后新增的id才可能只存在于redis的最近新增记录中
+        private volatile long maxLoadedId = Long.MAX_VALUE;
+        // 重建期间新增的id，加载完成后补充到新的过滤器中，避免丢失
+        private List<String> pendingIds;
+
+        private BloomGuard(Supplier<Collection<?>> idLoader) {
+            this.idLoader = idLoader;
+        }
+
+        private void rebuild() {
+            synchronized (this) {
+                pendingIds = new ArrayList<>();
+            }
+            Collection<?> ids = idLoader.get();
+            // 预留一倍容量给后续新增的数据
+            BloomFilter filter = new BloomFilter(Math.max(ids.size() * 2L, 1024), bloomFpp);
+            long maxId = Long.MIN_VALUE;
+            for (Object id : ids) {
+                filter.put(id.toString());
+                Long number = toNumber(id);
+                if (number != null) {
+                    maxId = Math.max(maxId, number);
+                }
+            }
+            synchronized (this) {
+                pendingIds.forEach(filter::put);
+                pendingIds = null;
+                current = filter;
+                maxLoadedId = maxId;
+            }
+            log.info("布隆过滤器构建完成，数量: {}", ids.size());
+        }
+
+        private synchronized void put(String id) {
+            if (current != null) {
+                current.put(id);
+            }
+            if (pendingIds != null) {
+                pendingIds.add(id);
+            }
+        }
+
+        private boolean mightContain(String id) {
+            BloomFilter filter = current;
+            return filter == null || filter.mightContain(id);
+        }
+
+        /**
+         * 是否为上次重建之后才可能新增的数字id，非数字id返回false
+         */
+        private boolean isAfterLoaded(Object id) {
+            Long number = toNumber(id);
+            return number != null && number > maxLoadedId;
+        }
+
+        private Long toNumber(Object id) {
+            if (id instanceof Number) {
+                return ((Number) id).longValue();
+            }
+            try {
+                return Long.valueOf(id.toString());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
     /**
-     * 1. 将任意java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间（普通缓存）
+     * 1. 将任意java对象序列化并存储在string类型的key中，并且可以设置TTL过期时间（普通缓存）
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        long ttlMillis = jitter(unit.toMillis(time));
+        setBytes(key, cacheValueSerializer.encode(value, System.currentTimeMillis() + ttlMillis, 0, false), ttlMillis);
+        publishInvalidate(key);
+    }
+
+    /**
+     * 将一组同类型的对象序列化并存储在string类型的key中，不设置过期时间
+     */
+    public void setList(String key, List<?> list, Class<?> type){
+        setBytes(key, cacheValueSerializer.encodeList(list, type), 0);
+    }
+
+    /**
+     * 查询 setList 写入的数据，不存在时返回null
+     * @param key 固定的key，同时作为统计指标的命名空间
+     */
+    public <R> List<R> getList(String key, Class<R> type){
+        byte[] bytes = getBytes(key);
+        List<R> list = bytes == null || bytes.length == 0 ? null : cacheValueSerializer.decodeList(bytes, type);
+        if(list == null){
+            cacheMetrics.recordMiss(key);
+            return null;
+        }
+        cacheMetrics.recordHit(key, false);
+        cacheMetrics.recordPayload(key, bytes.length);
+        return list;
+    }
+
+    /**
+     * 删除缓存，并通知所有节点删除近端缓存
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        publishInvalidate(key);
+    }
+
+    private void publishInvalidate(String key){
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
     }
 
     /**
-     * 2. 将任意java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（针对热点缓存）
+     * 2. 将任意java对象序列化并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（针对热点缓存）
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
-        // 设置逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * @param costMillis 查询数据库的耗时，写在数据头部，用于提前刷新
+     */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long costMillis){
+        // 设置逻辑过期时间，写在数据头部
+        long expireAt = System.currentTimeMillis() + jitter(unit.toMillis(time));
         // 存入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setBytes(key, cacheValueSerializer.encode(value, expireAt, costMillis, true), 0);
+        publishInvalidate(key);
+    }
+
+    /**
+     * 用管道一次写入一批逻辑过期的缓存，用于预热，不发送失效通知
+     * @param idGetter 取出对象的id，key为 keyPrefix + id
+     * @return 写入的数量
+     */
+    public <R, ID> int setBatchWithLogicalExpire(
+            String keyPrefix, Collection<R> values, Function<R, ID> idGetter, Long time, TimeUnit unit){
+        if(values.isEmpty()){
+            return 0;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            long writeTime = System.currentTimeMillis();
+            for (R r : values) {
+                long expireAt = writeTime + jitter(unit.toMillis(time));
+                connection.stringCommands().set(rawKey(keyPrefix + idGetter.apply(r)),
+                        cacheValueSerializer.encode(r, expireAt, 0, true));
+            }
+            return null;
+        });
+        return values.size();
     }
 
     /**
@@ -57,35 +384,176 @@ public class CacheClient {
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
 
+        //0. 布隆过滤器判断id一定不存在，直接返回
+        if(bloomRejects(keyPrefix, id)){
+            return null;
+        }
         String key = keyPrefix + id;
-        //1. 从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2. 判断是否存在
-        if(StrUtil.isNotBlank(json)){
-            //3. 缓存命中，直接返回商铺信息
-            return JSONUtil.toBean(json, type);
+        //1. 查询近端缓存和redis，快过期时按概率提前异步刷新
+        Object cached = lookupPassThrough(keyPrefix, key, type,
+                () -> refreshAsync(keyPrefix, key, () -> loadAndSet(keyPrefix, key, id, dbFallback, time, unit)));
+        if(cached != MISS){
+            return type.cast(cached);
         }
-        // 解决缓存穿透，命中空值，说明缓存不存在，返回错误信息
-        if(json != null){
+        cacheMetrics.recordMiss(keyPrefix);
+        //2. 未命中，根据id从数据库中查询，本节点同一个key的并发查询合并为一次
+        return singleFlight(key, () -> loadAndSet(keyPrefix, key, id, dbFallback, time, unit));
+    }
+
+    /**
+     * 互斥锁解决缓存击穿的逻辑
+     * 1. 本节点同一个key的并发未命中合并为一次加载，其余请求等待同一个CompletableFuture，不再休眠重试
+     * 2. 只有合并后的那一次加载去竞争redis互斥锁，保证所有节点只有一个请求查询数据库
+     */
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+
+        //0. 布隆过滤器判断id一定不存在，直接返回
+        if(bloomRejects(keyPrefix, id)){
             return null;
         }
-        //4. 未命中，根据id从数据库中查询
+        String key = keyPrefix + id;
+        String lockKey = LOCK_KEY_PREFIX + key;
+        //1. 查询近端缓存和redis，快过期时按概率提前异步刷新
+        Object cached = lookupPassThrough(keyPrefix, key, type,
+                () -> refreshAsync(keyPrefix, key, () -> loadAndSet(keyPrefix, key, id, dbFallback, time, unit)));
+        if(cached != MISS){
+            return type.cast(cached);
+        }
+        cacheMetrics.recordMiss(keyPrefix);
+        //2. 未命中，合并本节点的并发请求，由一个请求竞争互斥锁并重建缓存
+        return singleFlight(key, () -> {
+            for (int i = 0; i < MUTEX_MAX_ATTEMPTS; i++) {
+                //2.1 获取到锁，再次检测redis缓存是否存在，做 DoubleCheck，如果缓存存在了，无需缓存重建
+                if(tryLock(lockKey)){
+                    try {
+                        Object again = lookupPassThrough(keyPrefix, key, type, null);
+                        if(again != MISS){
+                            return type.cast(again);
+                        }
+                        return loadAndSet(keyPrefix, key, id, dbFallback, time, unit);
+                    } finally {
+                        unlock(lockKey);
+                    }
+                }
+                //2.2 其他节点正在重建，等待后查询redis
+                sleepQuietly(Math.min(20L << i, 200L));
+                Object rebuilt = lookupPassThrough(keyPrefix, key, type, null);
+                if(rebuilt != MISS){
+                    return type.cast(rebuilt);
+                }
+            }
+            //2.3 等待超时，直接查询数据库，不写缓存
+            return dbFallback.apply(id);
+        });
+    }
+
+    /**
+     * 查询近端缓存和redis，返回缓存的对象、null（命中空值）或 MISS（未命中）
+     * @param keyPrefix key所属的命名空间，用于统计指标
+     * @param earlyRefresh redis中的数据需要提前刷新时执行，为null时不提前刷新
+     */
+    private Object lookupPassThrough(String keyPrefix, String key, Class<?> type, Runnable earlyRefresh){
+        //1. 查询本地的热点数据和近端缓存
+        Object local = getLocal(keyPrefix, key);
+        if(local != null){
+            return local == NearCache.NULL ? null : local;
+        }
+        //2. 从redis查询缓存
+        return decodePassThrough(keyPrefix, key, getBytes(key), type, earlyRefresh);
+    }
+
+    /**
+     * 解析从redis查询到的普通缓存，返回缓存的对象、null（命中空值）或 MISS（未命中）
+     */
+    private Object decodePassThrough(String keyPrefix, String key, byte[] bytes, Class<?> type, Runnable earlyRefresh){
+        //1. 判断是否存在
+        if(bytes == null){
+            return MISS;
+        }
+        //2. 解决缓存穿透，命中空值，说明数据不存在
+        if(bytes.length == 0){
+            cacheMetrics.recordNullHit(keyPrefix);
+            putNearCache(key, NearCache.NULL, 0, Long.MAX_VALUE);
+            return null;
+        }
+        //3. 缓存命中，直接返回；字段版本不一致时按未命中处理
+        CacheValueSerializer.CachedValue<?> cached = cacheValueSerializer.decode(bytes, type, false);
+        if(cached == null){
+            return MISS;
+        }
+        cacheMetrics.recordHit(keyPrefix, false);
+        cacheMetrics.recordPayload(keyPrefix, bytes.length);
+        putNearCache(key, cached.getValue(), bytes.length, nearCacheExpireAt(cached));
+        //4. 快过期时按概率提前刷新
+        if(earlyRefresh != null && shouldRefreshEarly(cached)){
+            earlyRefresh.run();
+        }
+        return cached.getValue();
+    }
+
+    /**
+     * 查询数据库并写入redis，数据库中不存在时写入空值
+     */
+    private <R, ID> R loadAndSet(String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        //1. 根据id从数据库中查询，记录耗时
+        long start = System.nanoTime();
         R r = dbFallback.apply(id);
-        //5.1 数据库不存在，返回错误
+        cacheMetrics.recordLoad(keyPrefix, System.nanoTime() - start);
+        long costMillis = elapsedMillis(start);
+        //2. 数据库不存在，返回错误
         if(r == null){
             // 被动解决缓存穿透，不存在，就存入空值
-            this.set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
+            setBytes(key, EMPTY, TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL));
             return null;
         }
-        //5.2 数据库中的数据存在，将数据写入到redis
-        this.set(key, r, time, unit);
-        //6. 返回数据信息
+        //3. 数据库中的数据存在，将数据写入到redis；数据来自数据库，与其他节点的近端缓存一致，无需通知
+        long ttlMillis = jitter(unit.toMillis(time));
+        setBytes(key, cacheValueSerializer.encode(r, System.currentTimeMillis() + ttlMillis, costMillis, false), ttlMillis);
         return r;
     }
 
+    /**
+     * 合并本节点对同一个key的并发加载，只有第一个请求执行loader，其余请求等待它的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if(inFlight != null){
+            try {
+                return (R) inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (Throwable e) {
+            // Error 也要结束等待，否则等待的请求会一直阻塞
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    private static void sleepQuietly(long millis){
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
     /**
      * 逻辑过期解决缓存击穿的逻辑
      * 主要解决热点key的问题
@@ -94,62 +562,424 @@ public class CacheClient {
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
 
+        //0. 布隆过滤器判断id一定不存在，直接返回
+        if(bloomRejects(keyPrefix, id)){
+            return null;
+        }
         String key = keyPrefix + id;
+        //0.1 查询本地的热点数据和近端缓存，本地数据的过期时间不超过逻辑过期时间，命中即未过期
+        Object local = getLocal(keyPrefix, key);
+        if(local != null){
+            return type.cast(local);
+        }
         //1. 从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
         //2. 判断是否存在
-        if(StrUtil.isBlank(json)){
+        CacheValueSerializer.CachedValue<R> cached = decodeLogical(bytes, type);
+        if(cached == null){
             //2.1 缓存未命中，直接返回空
+            cacheMetrics.recordMiss(keyPrefix);
             return null;
         }
+        cacheMetrics.recordHit(keyPrefix, false);
+        cacheMetrics.recordPayload(keyPrefix, bytes.length);
 
-        //2.2 缓存命中，先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject)redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        //2.2 缓存命中，逻辑过期时间在数据头部，无需先解析外层对象
+        R r = cached.getValue();
+        String lockKey = LOCK_KEY_PREFIX + key;
         //3. 判断缓存是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //3.1 未过期，返回信息
+        if(cached.getExpireAt() > System.currentTimeMillis()){
+            //3.1 未过期，放入近端缓存并返回信息；快过期时按概率提前异步重建
+            putNearCache(key, r, bytes.length, nearCacheExpireAt(cached));
+            if(shouldRefreshEarly(cached) && tryLock(lockKey)){
+                submitRebuild(keyPrefix, key, lockKey, () -> dbFallback.apply(id), time, unit);
+            }
             return r;
         }
         //3.2 缓存过期，需要缓存重建
         //4. 缓存重建
         //4.1 尝试获取互斥锁
-        boolean isLock = tryLock(LOCK_SHOP_KEY + id);
+        boolean isLock = tryLock(lockKey);
         //4.2 判断是否获取成功
         if(isLock){
 
             // 获取锁成功，再次检测redis缓存是否过期，做 DoubleCheck，如果存在则无需缓存重建
-            json = stringRedisTemplate.opsForValue().get(key);
-            if(StrUtil.isBlank(json)){
+            cached = decodeLogical(getBytes(key), type);
+            if(cached == null){
+                unlock(lockKey);
                 return null;
             }
-            redisData = JSONUtil.toBean(json, RedisData.class);
-            r = JSONUtil.toBean((JSONObject)redisData.getData(), type);
-            expireTime = redisData.getExpireTime();
-            if(expireTime.isAfter(LocalDateTime.now())){
+            r = cached.getValue();
+            if(cached.getExpireAt() > System.currentTimeMillis()){
+                unlock(lockKey);
                 return r;
             }
 
             //4.3 成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //写入redis
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unlock(LOCK_SHOP_KEY + id);
-                }
-            });
+            submitRebuild(keyPrefix, key, lockKey, () -> dbFallback.apply(id), time, unit);
         }
         //4.4 无论获取成功与否，都返回过期的信息
+        cacheMetrics.recordStale(keyPrefix);
         return r;
     }
 
+    /**
+     * 开启独立线程重建逻辑过期的缓存，调用前需要已经获取到锁，重建完成后释放锁
+     */
+    private void submitRebuild(String keyPrefix, String key, String lockKey, Supplier<?> loader, Long time, TimeUnit unit){
+        cacheMetrics.recordRebuild(keyPrefix);
+        submitLocked(lockKey, () -> {
+            //查询数据库，记录耗时
+            long start = System.nanoTime();
+            Object r1 = loader.get();
+            //写入redis
+            this.setWithLogicalExpire(key, r1, time, unit, elapsedMillis(start));
+        });
+    }
+
+    /**
+     * 获取到锁时开启独立线程提前刷新缓存，其他节点或线程正在刷新时直接返回
+     */
+    private void refreshAsync(String keyPrefix, String key, Runnable task){
+        String lockKey = LOCK_KEY_PREFIX + key;
+        if(tryLock(lockKey)){
+            cacheMetrics.recordRebuild(keyPrefix);
+            submitLocked(lockKey, task);
+        }
+    }
+
+    /**
+     * 提交到有界的重建线程池，同一个key排队中时合并，队列满时放弃；无论哪种情况最终都释放锁
+     */
+    private void submitLocked(String lockKey, Runnable task){
+        cacheRebuildExecutor.submit(lockKey, task, () -> unlock(lockKey));
+    }
+
+    /**
+     * 查询各命名空间的缓存指标
+     */
+    public List<CacheMetricsDTO> queryMetrics(){
+        return cacheMetrics.snapshot();
+    }
+
+    /**
+     * 查询访问次数最多的key
+     */
+    public List<HotKeyDTO> queryHotKeys(){
+        return hotKeyDetector.queryHotKeys();
+    }
+
+    /**
+     * 查询缓存重建线程池的排队和耗时
+     */
+    public CacheRebuildStatsDTO queryRebuildStats(){
+        return cacheRebuildExecutor.stats();
+    }
+
+    /**
+     * XFetch：now - cost * beta * ln(rand) >= expireAt 时提前刷新
+     * 离过期时间越近、查询数据库越慢，提前刷新的概率越大，刷新被分散到过期前的一段时间内
+     */
+    private boolean shouldRefreshEarly(CacheValueSerializer.CachedValue<?> cached){
+        if(!earlyRefreshEnabled || cached.getCostMillis() <= 0 || cached.getExpireAt() == Long.MAX_VALUE){
+            return false;
+        }
+        return System.currentTimeMillis() + earlyRefreshGap(cached) >= cached.getExpireAt();
+    }
+
+    private long earlyRefreshGap(CacheValueSerializer.CachedValue<?> cached){
+        return (long) (-cached.getCostMillis() * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * 近端缓存在按 XFetch 抽样的提前刷新时间点过期，过期前的请求能回到redis判断是否需要提前刷新
+     */
+    private long nearCacheExpireAt(CacheValueSerializer.CachedValue<?> cached){
+        if(!earlyRefreshEnabled || cached.getCostMillis() <= 0 || cached.getExpireAt() == Long.MAX_VALUE){
+            return cached.getExpireAt();
+        }
+        return cached.getExpireAt() - earlyRefreshGap(cached);
+    }
+
+    /**
+     * 给过期时间加上随机抖动，避免同时写入的key同时过期
+     */
+    private long jitter(long ttlMillis){
+        if(ttlJitter <= 0 || ttlMillis <= 0){
+            return ttlMillis;
+        }
+        return ttlMillis + (long) (ttlMillis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private static long elapsedMillis(long startNanos){
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * 批量查询，利用缓存空值的方式解决缓存穿透问题（普通缓存）
+     * 1. 先查近端缓存，剩余的key用一次 MGET 查询redis
+     * 2. 未命中的id用一次 batchFallback 批量查询数据库，并用管道一次写回redis，数据库不存在的id写入空值
+     * @param batchFallback 根据一批id查询数据库，例如 listByIds
+     * @param idGetter 从查询结果中取出id，用于和入参的id对应
+     * @return 与ids顺序一致的结果，不存在的数据对应位置为null
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, List<R>> batchFallback, Function<R, ID> idGetter, Long time, TimeUnit unit){
+
+        List<ID> idList = new ArrayList<>(ids);
+        List<R> results = new ArrayList<>(Collections.nCopies(idList.size(), null));
+        //1. 布隆过滤器和近端缓存过滤
+        List<Integer> pending = lookupNearCache(keyPrefix, idList, type, results);
+        if(pending.isEmpty()){
+            return results;
+        }
+        //2. 一次 MGET 查询redis
+        List<byte[]> values = multiGet(keyPrefix, idList, pending);
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            int index = pending.get(i);
+            ID id = idList.get(index);
+            String key = keyPrefix + id;
+            Object cached = decodePassThrough(keyPrefix, key, values.get(i), type, () -> refreshAsync(keyPrefix, key,
+                    () -> loadAndSet(keyPrefix, key, id, single -> firstOrNull(batchFallback.apply(Collections.singletonList(single))), time, unit)));
+            if(cached == MISS){
+                cacheMetrics.recordMiss(keyPrefix);
+                misses.add(index);
+            } else {
+                //2.1 缓存命中，命中空值时为null
+                results.set(index, type.cast(cached));
+            }
+        }
+        if(misses.isEmpty()){
+            return results;
+        }
+        //3. 未命中的id批量查询数据库，记录耗时
+        long start = System.nanoTime();
+        Map<String, R> loaded = batchLoad(keyPrefix, idList, misses, batchFallback, idGetter);
+        long costMillis = elapsedMillis(start);
+        //4. 用管道一次写回redis；数据来自数据库，与其他节点的近端缓存一致，无需通知
+        long nullTtl = TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            long now = System.currentTimeMillis();
+            for (Integer index : misses) {
+                ID id = idList.get(index);
+                R r = loaded.get(id.toString());
+                byte[] rawKey = rawKey(keyPrefix + id);
+                if(r == null){
+                    connection.stringCommands().pSetEx(rawKey, nullTtl, EMPTY);
+                } else {
+                    long ttlMillis = jitter(unit.toMillis(time));
+                    connection.stringCommands().pSetEx(rawKey, ttlMillis,
+                            cacheValueSerializer.encode(r, now + ttlMillis, costMillis, false));
+                    results.set(index, r);
+                }
+            }
+            return null;
+        });
+        return results;
+    }
+
+    /**
+     * 批量查询，利用逻辑过期解决缓存击穿问题（针对热点缓存）
+     * 1. 先查近端缓存，剩余的key用一次 MGET 查询redis
+     * 2. 已过期的数据直接返回，并各自开启独立线程重建
+     * 3. 不存在的key用一次 batchFallback 批量查询数据库，并用管道一次写回redis
+     * @return 与ids顺序一致的结果，不存在的数据对应位置为null
+     */
+    public <R, ID> List<R> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, List<R>> batchFallback, Function<R, ID> idGetter, Long time, TimeUnit unit){
+
+        List<ID> idList = new ArrayList<>(ids);
+        List<R> results = new ArrayList<>(Collections.nCopies(idList.size(), null));
+        //1. 布隆过滤器和近端缓存过滤
+        List<Integer> pending = lookupNearCache(keyPrefix, idList, type, results);
+        if(pending.isEmpty()){
+            return results;
+        }
+        //2. 一次 MGET 查询redis
+        List<byte[]> values = multiGet(keyPrefix, idList, pending);
+        List<Integer> misses = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < pending.size(); i++) {
+            int index = pending.get(i);
+            ID id = idList.get(index);
+            String key = keyPrefix + id;
+            CacheValueSerializer.CachedValue<R> cached = decodeLogical(values.get(i), type);
+            if(cached == null){
+                cacheMetrics.recordMiss(keyPrefix);
+                misses.add(index);
+                continue;
+            }
+            cacheMetrics.recordHit(keyPrefix, false);
+            cacheMetrics.recordPayload(keyPrefix, values.get(i).length);
+            R r = cached.getValue();
+            results.set(index, r);
+            String lockKey = LOCK_KEY_PREFIX + key;
+            if(cached.getExpireAt() > now){
+                //2.1 未过期，放入近端缓存；快过期时按概率提前异步重建
+                putNearCache(key, r, values.get(i).length, nearCacheExpireAt(cached));
+                if(shouldRefreshEarly(cached) && tryLock(lockKey)){
+                    submitRebuild(keyPrefix, key, lockKey,
+                            () -> firstOrNull(batchFallback.apply(Collections.singletonList(id))), time, unit);
+                }
+            } else {
+                //2.2 已过期，获取到锁的节点开启独立线程重建，本次仍返回过期的信息
+                cacheMetrics.recordStale(keyPrefix);
+                if(tryLock(lockKey)){
+                    submitRebuild(keyPrefix, key, lockKey,
+                            () -> firstOrNull(batchFallback.apply(Collections.singletonList(id))), time, unit);
+                }
+            }
+        }
+        if(misses.isEmpty()){
+            return results;
+        }
+        //3. 不存在的key批量查询数据库，记录耗时
+        long start = System.nanoTime();
+        Map<String, R> loaded = batchLoad(keyPrefix, idList, misses, batchFallback, idGetter);
+        long costMillis = elapsedMillis(start);
+        if(loaded.isEmpty()){
+            return results;
+        }
+        //4. 用管道一次写回redis，设置逻辑过期时间
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            long writeTime = System.currentTimeMillis();
+            for (Integer index : misses) {
+                ID id = idList.get(index);
+                R r = loaded.get(id.toString());
+                if(r == null){
+                    continue;
+                }
+                long expireAt = writeTime + jitter(unit.toMillis(time));
+                connection.stringCommands().set(rawKey(keyPrefix + id),
+                        cacheValueSerializer.encode(r, expireAt, costMillis, true));
+                results.set(index, r);
+            }
+            return null;
+        });
+        return results;
+    }
+
+    /**
+     * 用布隆过滤器和近端缓存过滤一批id，命中的结果写入results，返回仍需查询redis的下标
+     */
+    private <R, ID> List<Integer> lookupNearCache(String keyPrefix, List<ID> idList, Class<R> type, List<R> results){
+        List<Integer> pending = new ArrayList<>(idList.size());
+        for (int i = 0; i < idList.size(); i++) {
+            ID id = idList.get(i);
+            if(bloomRejects(keyPrefix, id)){
+                continue;
+            }
+            Object local = getLocal(keyPrefix, keyPrefix + id);
+            if(local == null){
+                pending.add(i);
+            } else if(local != NearCache.NULL){
+                results.set(i, type.cast(local));
+            }
+        }
+        return pending;
+    }
+
+    private <ID> List<byte[]> multiGet(String keyPrefix, List<ID> idList, List<Integer> indexes){
+        byte[][] keys = new byte[indexes.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rawKey(keyPrefix + idList.get(indexes.get(i)));
+        }
+        List<byte[]> values = stringRedisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(keys));
+        return values != null ? values : Collections.nCopies(keys.length, null);
+    }
+
+    /**
+     * 解析逻辑过期的缓存，未命中（不存在、空值或字段版本不一致）时返回null
+     */
+    private <R> CacheValueSerializer.CachedValue<R> decodeLogical(byte[] bytes, Class<R> type){
+        if(bytes == null || bytes.length == 0){
+            return null;
+        }
+        return cacheValueSerializer.decode(bytes, type, true);
+    }
+
+    private byte[] getBytes(String key){
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(rawKey(key)));
+    }
+
+    /**
+     * @param ttlMillis 过期时间，小于等于0表示不过期
+     */
+    private void setBytes(String key, byte[] value, long ttlMillis){
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> ttlMillis > 0
+                ? connection.stringCommands().pSetEx(rawKey(key), ttlMillis, value)
+                : connection.stringCommands().set(rawKey(key), value));
+    }
+
+    private static byte[] rawKey(String key){
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 对未命中的id（去重后）调用一次 batchFallback，返回 id字符串 -> 数据
+     */
+    private <R, ID> Map<String, R> batchLoad(String keyPrefix, List<ID> idList, List<Integer> misses,
+                                             Function<Collection<ID>, List<R>> batchFallback, Function<R, ID> idGetter){
+        Set<ID> missIds = new LinkedHashSet<>();
+        for (Integer index : misses) {
+            missIds.add(idList.get(index));
+        }
+        long start = System.nanoTime();
+        List<R> list = batchFallback.apply(missIds);
+        cacheMetrics.recordLoad(keyPrefix, System.nanoTime() - start);
+        Map<String, R> loaded = new HashMap<>(list == null ? 0 : list.size() * 2);
+        if(list != null){
+            for (R r : list) {
+                loaded.put(idGetter.apply(r).toString(), r);
+            }
+        }
+        return loaded;
+    }
+
+    private static <R> R firstOrNull(List<R> list){
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 查询本地数据：先查固定的热点数据，再查近端缓存；同时记录一次访问，用于热点探测
+     * @param keyPrefix key所属的命名空间，用于统计指标
+     */
+    private Object getLocal(String keyPrefix, String key){
+        hotKeyDetector.record(key);
+        Object local = hotKeyDetector.getPinned(key);
+        if(local == null && nearCacheEnabled){
+            local = nearCache.get(key);
+        }
+        if(local == NearCache.NULL){
+            cacheMetrics.recordNullHit(keyPrefix);
+        } else if(local != null){
+            cacheMetrics.recordHit(keyPrefix, true);
+        }
+        return local;
+    }
+
+    /**
+     * 放入近端缓存，热点key同时固定在本地
+     */
+    private void putNearCache(String key, Object value, int weight, long expireAt){
+        if(value == null){
+            return;
+        }
+        if(nearCacheEnabled){
+            nearCache.put(key, value, weight, expireAt);
+        }
+        hotKeyDetector.pinIfHot(key, value, weight, expireAt);
+    }
+
+    private void invalidateLocal(String key){
+        nearCache.invalidate(key);
+        hotKeyDetector.unpin(key);
+    }
+
     /**
      * 利用redis中的setnx()方法实现获取锁
      */
@@ -0,0 +1,143 @@
+package com.ck.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 事务提交后的缓存失效（延迟双删）
+ * 1. 事务中登记要删除或重写的缓存key，事务提交后才执行，回滚时不执行；不在事务中时立即执行
+ *    避免提交前删除缓存后，并发的查询把旧数据重新写入缓存
+ * 2. 提交后的操作完成后，经过一段延迟再执行一次，清除提交前后并发查询写回的旧数据
+ * 3. 失败（redis不可用）时按指数退避重试，超过次数后记录日志，由缓存过期时间兜底
+ * 4. 延迟和重试由时间轮调度，在单独的线程中执行，redis超时不会阻塞时间轮
+ * 5. 登记的操作只保存在内存中，事务提交后进程退出时会丢失，同样由缓存过期时间兜底
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 第二次删除的延迟，需大于一次查询数据库并写回缓存的耗时
+     */
+    @Value("${cache.invalidate.delay-millis:1000}")
+    private long delayMillis;
+
+    @Value("${cache.invalidate.max-retries:5}")
+    private int maxRetries;
+
+    /**
+     * 第一次重试的间隔，之后每次翻倍
+     */
+    @Value("${cache.invalidate.retry-millis:200}")
+    private long retryMillis;
+
+    private Timer timer;
+
+    private final ExecutorService invalidateExecutor =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("cache-invalidate-", true));
+
+    @PostConstruct
+    private void init() {
+        timer = new HashedWheelTimer(new NamedThreadFactory("cache-invalidate-timer-", true),
+                100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        timer.stop();
+        invalidateExecutor.shutdown();
+    }
+
+    /**
+     * 登记要删除的缓存key，当前事务提交后删除，并在延迟后再删除一次
+     */
+    public void invalidateAfterCommit(String... keys) {
+        for (String key : keys) {
+            afterCommit(key, () -> cacheClient.delete(key));
+        }
+    }
+
+    /**
+     * 登记要重写的逻辑过期缓存，当前事务提交后从数据库重新查询并写入，并在延迟后再写入一次
+     * 逻辑过期的缓存未命中时直接返回空，只删除会让查询在下次预热前一直查不到数据
+     * @param loader 查询数据库，返回null时删除缓存
+     */
+    public void refreshAfterCommit(String key, Supplier<?> loader, Long time, TimeUnit unit) {
+        afterCommit(key, () -> {
+            Object value = loader.get();
+            if (value == null) {
+                cacheClient.delete(key);
+            } else {
+                cacheClient.setWithLogicalExpire(key, value, time, unit);
+            }
+        });
+    }
+
+    private void afterCommit(String key, Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 不在事务中，立即执行
+            execute(key, action);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Runnable> pending = (Map<String, Runnable>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            // 每个事务只注册一次回调，同一事务中登记的key提交后一起执行，同一个key以最后一次登记为准
+            Map<String, Runnable> created = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    created.forEach(CacheInvalidator.this::execute);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                }
+            });
+            pending = created;
+        }
+        pending.put(key, action);
+    }
+
+    private void execute(String key, Runnable action) {
+        //1. 立即执行
+        execute(key, action, 0);
+        //2. 延迟后再执行一次
+        timer.newTimeout(timeout -> invalidateExecutor.execute(() -> execute(key, action, 0)), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void execute(String key, Runnable action, int attempt) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            if (attempt >= maxRetries) {
+                log.error("更新缓存失败，已重试{}次，key: {}", attempt, key, e);
+                return;
+            }
+            long delay = retryMillis << attempt;
+            log.warn("更新缓存失败，{}ms后重试，key: {}", delay, key);
+            timer.newTimeout(timeout -> invalidateExecutor.execute(() -> execute(key, action, attempt + 1)), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
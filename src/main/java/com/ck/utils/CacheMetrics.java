@@ -0,0 +1,142 @@
+package com.ck.utils;
+
+import com.ck.dto.CacheMetricsDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存指标，按命名空间统计，命名空间由调用方传入key的前缀常量（例如 cache:shop:），不从完整的key中截取，
+ * 避免客户端传入的key（例如token）产生无限多的命名空间
+ * 命中（本地、redis、空值）、未命中、返回过期数据、异步重建次数，查询数据库的耗时分布和redis数据大小分布
+ */
+@Component
+public class CacheMetrics {
+
+    private static final long[] LOAD_MILLIS_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+    private static final long[] PAYLOAD_BYTES_BOUNDS = {64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 65536};
+
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+    public void recordHit(String namespace, boolean local) {
+        Namespace ns = of(namespace);
+        (local ? ns.localHits : ns.redisHits).increment();
+    }
+
+    public void recordNullHit(String namespace) {
+        of(namespace).nullHits.increment();
+    }
+
+    public void recordMiss(String namespace) {
+        of(namespace).misses.increment();
+    }
+
+    public void recordStale(String namespace) {
+        of(namespace).staleServes.increment();
+    }
+
+    public void recordRebuild(String namespace) {
+        of(namespace).rebuilds.increment();
+    }
+
+    public void recordLoad(String namespace, long nanos) {
+        of(namespace).loadMillis.record(TimeUnit.NANOSECONDS.toMillis(nanos), nanos);
+    }
+
+    public void recordPayload(String namespace, int bytes) {
+        of(namespace).payloadBytes.record(bytes, bytes);
+    }
+
+    /**
+     * 所有命名空间的指标，按命名空间排序
+     */
+    public List<CacheMetricsDTO> snapshot() {
+        List<CacheMetricsDTO> list = new ArrayList<>(namespaces.size());
+        namespaces.forEach((name, ns) -> list.add(ns.toDTO(name)));
+        list.sort(Comparator.comparing(CacheMetricsDTO::getNamespace));
+        return list;
+    }
+
+    private Namespace of(String namespace) {
+        return namespaces.computeIfAbsent(namespace, k -> new Namespace());
+    }
+
+    private static class Namespace {
+        private final LongAdder localHits = new LongAdder();
+        private final LongAdder redisHits = new LongAdder();
+        private final LongAdder nullHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder staleServes = new LongAdder();
+        private final LongAdder rebuilds = new LongAdder();
+        private final Histogram loadMillis = new Histogram(LOAD_MILLIS_BOUNDS);
+        private final Histogram payloadBytes = new Histogram(PAYLOAD_BYTES_BOUNDS);
+
+        private CacheMetricsDTO toDTO(String name) {
+            CacheMetricsDTO dto = new CacheMetricsDTO();
+            dto.setNamespace(name);
+            long hits = localHits.sum() + redisHits.sum() + nullHits.sum();
+            long total = hits + misses.sum();
+            dto.setLocalHits(localHits.sum());
+            dto.setRedisHits(redisHits.sum());
+            dto.setNullHits(nullHits.sum());
+            dto.setMisses(misses.sum());
+            dto.setHitRatio(total == 0 ? 0 : (double) hits / total);
+            dto.setStaleServes(staleServes.sum());
+            dto.setRebuilds(rebuilds.sum());
+            long loads = loadMillis.count.sum();
+            dto.setLoads(loads);
+            // 耗时的总和按纳秒累加
+            dto.setAvgLoadMillis(loads == 0 ? 0 : loadMillis.sum.sum() / 1e6 / loads);
+            dto.setLoadMillis(loadMillis.buckets());
+            dto.setPayloadBytes(payloadBytes.buckets());
+            return dto;
+        }
+    }
+
+    /**
+     * 固定区间的直方图，最后一个区间为 +Inf
+     */
+    private static class Histogram {
+        private final long[] bounds;
+        private final LongAdder[] counts;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value  用于确定区间的值
+         * @param amount 累加到总和中的值
+         */
+        private void record(long value, long amount) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            counts[i].increment();
+            count.increment();
+            sum.add(amount);
+        }
+
+        private Map<String, Long> buckets() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (int i = 0; i < counts.length; i++) {
+                map.put(i < bounds.length ? String.valueOf(bounds[i]) : "+Inf", counts[i].sum());
+            }
+            return map;
+        }
+    }
+}
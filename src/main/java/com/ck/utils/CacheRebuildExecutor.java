@@ -0,0 +1,120 @@
+package com.ck.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.ck.dto.CacheRebuildStatsDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * 1. 线程数和队列长度都有上限，队列满时拒绝新的重建任务，调用方继续返回过期数据，大量key同时过期时积压不会无限增长
+ * 2. 同一个key的重建任务在排队或执行时，新的任务直接合并
+ * 3. 统计排队时间、重建耗时和队列长度
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Value("${cache.rebuild.threads:10}")
+    private int threads;
+
+    @Value("${cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    // 排队或执行中的key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder rebuildNanos = new LongAdder();
+    private final AtomicLong maxRebuildMillis = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        // 拒绝策略为 AbortPolicy，由 submit 捕获后释放锁并计数
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory("cache-rebuild-", true),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交重建任务
+     * @param key     去重的key，同一个key同时只有一个任务
+     * @param task    重建任务
+     * @param release 任务结束、被合并或被拒绝时执行，用于释放锁
+     * @return 是否已提交
+     */
+    public boolean submit(String key, Runnable task, Runnable release) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            release.run();
+            return false;
+        }
+        long submitTime = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                queueNanos.add(start - submitTime);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败，key: {}", key, e);
+                } finally {
+                    long cost = System.nanoTime() - start;
+                    rebuildNanos.add(cost);
+                    maxRebuildMillis.accumulateAndGet(TimeUnit.NANOSECONDS.toMillis(cost), Math::max);
+                    completed.increment();
+                    pendingKeys.remove(key);
+                    release.run();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            pendingKeys.remove(key);
+            release.run();
+            log.warn("缓存重建队列已满，丢弃重建任务，key: {}", key);
+            return false;
+        }
+    }
+
+    public CacheRebuildStatsDTO stats() {
+        CacheRebuildStatsDTO stats = new CacheRebuildStatsDTO();
+        stats.setPoolSize(executor.getPoolSize());
+        stats.setActive(executor.getActiveCount());
+        stats.setQueueSize(executor.getQueue().size());
+        stats.setQueueCapacity(queueCapacity);
+        long done = completed.sum();
+        stats.setCompleted(done);
+        stats.setFailed(failed.sum());
+        stats.setRejected(rejected.sum());
+        stats.setDeduplicated(deduplicated.sum());
+        stats.setAvgQueueMillis(done == 0 ? 0 : queueNanos.sum() / 1e6 / done);
+        stats.setAvgRebuildMillis(done == 0 ? 0 : rebuildNanos.sum() / 1e6 / done);
+        stats.setMaxRebuildMillis(maxRebuildMillis.get());
+        return stats;
+    }
+}
@@ -0,0 +1,66 @@
+package com.ck.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的 count-min sketch，线程安全
+ * depth 行 width 列的计数器，每行用 murmur64 的高低32位做双重哈希定位，估计值取各行的最小值，只会高估不会低估
+ * decay() 把所有计数减半，使旧的访问逐渐失去权重
+ */
+public class CountMinSketch {
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int depth;
+
+    public CountMinSketch(int width, int depth) {
+        this.width = Math.max(width, 16);
+        this.depth = Math.max(depth, 1);
+        this.counters = new AtomicLongArray(this.width * this.depth);
+    }
+
+    /**
+     * 计数加一，并返回加一后的估计值
+     */
+    public long increment(String key) {
+        long hash = MurmurHash.hash64(key.getBytes(StandardCharsets.UTF_8));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.incrementAndGet(index(i, h1 + (i + 1) * h2)));
+        }
+        return min;
+    }
+
+    public long estimate(String key) {
+        long hash = MurmurHash.hash64(key.getBytes(StandardCharsets.UTF_8));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(index(i, h1 + (i + 1) * h2)));
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            long value;
+            do {
+                value = counters.get(i);
+            } while (value != 0 && !counters.compareAndSet(i, value, value >>> 1));
+        }
+    }
+
+    private int index(int row, int hash) {
+        // 取非负数
+        return row * width + (hash & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,66 @@
+package com.ck.utils;
+
+/**
+ * 进程内店铺索引共用的球面距离和网格划分
+ * 1. 距离的公式和地球半径与redis的 geohashGetDistance 相同，返回的距离保留4位小数
+ * 2. 经纬度按 CELL_DEGREES 划分格子，格子编号为 行号 << 32 | 列号，同一行的格子编号连续
+ */
+public class GeoUtils {
+
+    /**
+     * 与redis GEO相同的地球半径，米
+     */
+    public static final double EARTH_RADIUS = 6372797.560856;
+
+    /**
+     * 格子大小，度，纬度方向约1.1公里
+     */
+    public static final double CELL_DEGREES = 0.01;
+
+    /**
+     * 球面距离，米
+     */
+    public static double distance(double lon1, double lat1, double lon2, double lat2) {
+        double lat1r = Math.toRadians(lat1);
+        double lat2r = Math.toRadians(lat2);
+        double u = Math.sin((lat2r - lat1r) / 2);
+        double v = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1r) * Math.cos(lat2r) * v * v));
+    }
+
+    /**
+     * 保留4位小数，与 GEOSEARCH WITHDIST 返回的精度相同
+     */
+    public static double round(double distance) {
+        return Math.round(distance * 10000) / 10000.0;
+    }
+
+    public static long row(double lat) {
+        return (long) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / CELL_DEGREES);
+    }
+
+    public static long col(double lon) {
+        return (long) Math.floor((Math.max(-180, Math.min(180, lon)) + 180) / CELL_DEGREES);
+    }
+
+    public static long cellOf(double x, double y) {
+        return row(y) << 32 | col(x);
+    }
+
+    /**
+     * 有序数组中第一个大于等于 key 的位置
+     */
+    public static int lowerBound(long[] cells, long key) {
+        int low = 0;
+        int high = cells.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cells[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ck.utils;
+
+import com.ck.dto.HotKeyDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 热点key探测
+ * 1. 每次访问在 count-min sketch 中计数，每个窗口结束时所有计数减半，计数反映最近几个窗口的访问频率
+ * 2. 维护计数最大的 top-K 个key，计数超过阈值的key为热点key
+ * 3. 热点key的数据固定在进程内，有效期很短，不受近端缓存开关和容量影响，单个爆款店铺或博客的请求在本地消化
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    @Value("${cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cache.hot-key.sketch-width:4096}")
+    private int sketchWidth;
+
+    @Value("${cache.hot-key.sketch-depth:4}")
+    private int sketchDepth;
+
+    @Value("${cache.hot-key.top-k:100}")
+    private int topK;
+
+    /**
+     * 衰减后的计数超过该值即为热点key
+     */
+    @Value("${cache.hot-key.threshold:1000}")
+    private long threshold;
+
+    /**
+     * 热点数据在本地固定的时间
+     */
+    @Value("${cache.hot-key.pin-ttl-millis:2000}")
+    private long pinTtlMillis;
+
+    @Value("${cache.hot-key.pin-max-weight:4194304}")
+    private long pinMaxWeight;
+
+    private CountMinSketch sketch;
+
+    private NearCache pinned;
+
+    // top-K 的key -> 计数估计值
+    private final Map<String, Long> topKeys = new ConcurrentHashMap<>();
+
+    // top-K 中的最小计数，超过它才有资格进入 top-K
+    private volatile long topKMin;
+
+    // 计数超过阈值的key
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        sketch = new CountMinSketch(sketchWidth, sketchDepth);
+        pinned = new NearCache(pinMaxWeight, pinTtlMillis);
+    }
+
+    /**
+     * 记录一次访问
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        long count = sketch.increment(key);
+        if (topKeys.containsKey(key)) {
+            topKeys.put(key, count);
+        } else if (topKeys.size() < topK || count > topKMin) {
+            enterTopK(key, count);
+        }
+        if (count >= threshold && hotKeys.add(key)) {
+            log.info("发现热点key: {}，计数: {}", key, count);
+        }
+        return hotKeys.contains(key);
+    }
+
+    public boolean isHot(String key) {
+        return enabled && hotKeys.contains(key);
+    }
+
+    /**
+     * 查询固定在本地的数据，不存在时返回null，数据库中不存在的数据返回 NearCache.NULL
+     */
+    public Object getPinned(String key) {
+        return enabled ? pinned.get(key) : null;
+    }
+
+    /**
+     * key为热点key时把数据固定在本地
+     * @param expireAt 数据本身的过期时间（毫秒时间戳）
+     */
+    public void pinIfHot(String key, Object value, int weight, long expireAt) {
+        if (isHot(key)) {
+            pinned.put(key, value, weight, expireAt);
+        }
+    }
+
+    public void unpin(String key) {
+        pinned.invalidate(key);
+    }
+
+    /**
+     * 按计数从大到小返回 top-K 的key
+     */
+    public List<HotKeyDTO> queryHotKeys() {
+        List<HotKeyDTO> list = new ArrayList<>(topKeys.size());
+        topKeys.forEach((key, count) -> list.add(new HotKeyDTO(key, count, hotKeys.contains(key))));
+        list.sort(Comparator.comparing(HotKeyDTO::getCount).reversed());
+        return list;
+    }
+
+    /**
+     * 窗口结束，所有计数减半，计数降到阈值以下的key不再是热点key
+     */
+    @Scheduled(fixedDelayString = "${cache.hot-key.window-millis:10000}")
+    public void decay() {
+        if (!enabled) {
+            return;
+        }
+        sketch.decay();
+        synchronized (this) {
+            topKeys.replaceAll((key, count) -> sketch.estimate(key));
+            topKeys.values().removeIf(count -> count == 0);
+            topKMin = minCount();
+        }
+        hotKeys.removeIf(key -> sketch.estimate(key) < threshold);
+    }
+
+    private synchronized void enterTopK(String key, long count) {
+        topKeys.put(key, count);
+        if (topKeys.size() > topK) {
+            // 淘汰计数最小的key
+            topKeys.entrySet().stream()
+                    .min(Map.Entry.comparingByValue())
+                    .ifPresent(min -> topKeys.remove(min.getKey()));
+        }
+        topKMin = minCount();
+    }
+
+    private long minCount() {
+        return topKeys.size() < topK ? 0 : topKeys.values().stream().mapToLong(Long::longValue).min().orElse(0);
+    }
+}
@@ -0,0 +1,334 @@
+package com.ck.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ck.entity.Shop;
+import com.ck.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.ck.utils.GeoUtils.*;
+
+/**
+ * 进程内的店铺空间索引，shop.geo.index 为 local 时代替redis GEO，查询不经过网络
+ * 1. 每个店铺类型一个网格：格子的划分见 GeoUtils，店铺id、经纬度和格子编号存放在按格子编号排序的基本类型数组中
+ * 2. 半径查询时计算外接矩形覆盖的行列，同一行的格子在数组中连续，二分查找到起止位置后逐个计算距离；不处理跨越180度经线的查询；
+ *    最近k个店铺的查询从1公里开始逐次加倍半径
+ * 3. 网格不可变，店铺变化时复制出新的网格再替换，查询不加锁；一批变化按类型分组，每个类型的网格只复制一次，
+ *    复制时去掉变化的店铺，与排好序的新坐标归并，不重新排序整个网格
+ * 4. 由 ShopIndexLoader 加载、按批刷新变化的店铺和定期全量重建
+ * 5. 距离的公式和地球半径与redis相同，保留4位小数；redis用52位geohash解码后的坐标计算距离，这里用原始坐标，
+ *    距离可能与 GEOSEARCH 有微小差异，半径边界上和距离相近的店铺的结果和顺序可能不同
+ */
+@Slf4j
+@Component
+public class LocalShopGeoIndex implements ShopLocator, ShopIndex {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * redis：使用redis GEO；local：使用进程内索引
+     */
+    @Value("${shop.geo.index:redis}")
+    private String indexType;
+
+    // 店铺类型 -> 网格
+    private final Map<Long, Grid> grids = new ConcurrentHashMap<>();
+
+    // 店铺id -> 店铺类型，店铺修改类型时从原类型的网格中移除
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return "local".equals(indexType);
+    }
+
+    /**
+     * 从数据库全量重建
+     */
+    @Override
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        //1. 只查询类型和坐标
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y"));
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        //2. 按类型构建网格
+        Map<Long, Grid> built = new HashMap<>(byType.size());
+        Map<Long, Long> types = new HashMap<>(shops.size());
+        byType.forEach((typeId, list) -> {
+            long[] ids = new long[list.size()];
+            double[] xs = new double[list.size()];
+            double[] ys = new double[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                Shop shop = list.get(i);
+                ids[i] = shop.getId();
+                xs[i] = shop.getX();
+                ys[i] = shop.getY();
+                types.put(shop.getId(), typeId);
+            }
+            built.put(typeId, Grid.build(ids, xs, ys));
+        });
+        //3. 替换
+        grids.putAll(built);
+        grids.keySet().retainAll(built.keySet());
+        shopTypes.putAll(types);
+        shopTypes.keySet().retainAll(types.keySet());
+        log.info("进程内店铺索引已重建，店铺数: {}，类型数: {}，耗时: {}ms",
+                types.size(), built.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按数据库中的最新数据刷新一批店铺，店铺不存在或没有坐标时移除
+     */
+    @Override
+    public synchronized void refresh(Collection<Long> shopIds) {
+        Map<Long, Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y").in("id", shopIds))
+                .stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        //1. 按类型分组：店铺id -> 新坐标，移除时为 Grid.REMOVED
+        Map<Long, Map<Long, double[]>> changes = new HashMap<>();
+        for (Long shopId : shopIds) {
+            Shop shop = shops.get(shopId);
+            boolean valid = shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+            Long newType = valid ? shop.getTypeId() : null;
+            // 类型变化或店铺失效时从原类型的网格中移除
+            Long oldType = shopTypes.get(shopId);
+            if (oldType != null && !oldType.equals(newType)) {
+                changes.computeIfAbsent(oldType, k -> new HashMap<>()).put(shopId, Grid.REMOVED);
+                shopTypes.remove(shopId);
+            }
+            if (valid) {
+                changes.computeIfAbsent(newType, k -> new HashMap<>()).put(shopId, new double[]{shop.getX(), shop.getY()});
+                shopTypes.put(shopId, newType);
+            }
+        }
+        //2. 每个类型的网格复制一次，没有变化时不替换
+        changes.forEach((typeId, typeChanges) -> {
+            Grid grid = grids.getOrDefault(typeId, Grid.EMPTY);
+            Grid updated = grid.apply(typeChanges);
+            if (updated == grid) {
+                return;
+            }
+            if (updated.ids.length == 0) {
+                grids.remove(typeId);
+            } else {
+                grids.put(typeId, updated);
+            }
+        });
+    }
+
+    @Override
+    public LinkedHashMap<Long, Double> search(Long typeId, double x, double y, int offset, int count) {
+        List<Hit> hits = within(typeId, x, y, RADIUS_METERS);
+        LinkedHashMap<Long, Double> result = new LinkedHashMap<>();
+        for (int i = offset; i < hits.size() && i < offset + count; i++) {
+            result.put(hits.get(i).id, hits.get(i).distance);
+        }
+        return result;
+    }
+
+    @Override
+    public LinkedHashMap<Long, Double> searchAfter(Long typeId, double x, double y, Double lastDistance, Long lastId, int seen, int count) {
+        List<Hit> hits = within(typeId, x, y, RADIUS_METERS);
+        double afterDistance = lastDistance == null ? -1 : lastDistance;
+        long afterId = lastId == null ? 0 : lastId;
+        LinkedHashMap<Long, Double> result = new LinkedHashMap<>();
+        for (Hit hit : hits) {
+            if (result.size() == count) {
+                break;
+            }
+            if (hit.distance > afterDistance || (hit.distance == afterDistance && hit.id > afterId)) {
+                result.put(hit.id, hit.distance);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从一个格子的距离开始逐次扩大半径，直到凑满k个或覆盖所有店铺
+     */
+    @Override
+    public LinkedHashMap<Long, Double> nearest(Long typeId, double x, double y, int k) {
+        Grid grid = grids.get(typeId);
+        int total = grid == null ? 0 : grid.ids.length;
+        double radius = 1000;
+        List<Hit> hits = within(typeId, x, y, radius);
+        // 半径达到地球半周长时已覆盖所有店铺
+        while (hits.size() < Math.min(k, total) && radius < Math.PI * EARTH_RADIUS) {
+            radius *= 2;
+            hits = within(typeId, x, y, radius);
+        }
+        LinkedHashMap<Long, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < hits.size() && i < k; i++) {
+            result.put(hits.get(i).id, hits.get(i).distance);
+        }
+        return result;
+    }
+
+    /**
+     * 半径内的店铺，按距离、店铺id排序
+     */
+    private List<Hit> within(Long typeId, double x, double y, double radius) {
+        Grid grid = grids.get(typeId);
+        if (grid == null || grid.ids.length == 0) {
+            return Collections.emptyList();
+        }
+        //1. 外接矩形覆盖的行列
+        double latDelta = Math.toDegrees(radius / EARTH_RADIUS);
+        double cos = Math.cos(Math.toRadians(y));
+        double lonDelta = cos < 1e-6 ? 360 : Math.min(360, latDelta / cos);
+        long rowMin = row(y - latDelta);
+        long rowMax = row(y + latDelta);
+        long colMin = col(x - lonDelta);
+        long colMax = col(x + lonDelta);
+        //2. 逐行二分查找格子的起止位置，计算距离
+        List<Hit> hits = new ArrayList<>();
+        for (long row = rowMin; row <= rowMax; row++) {
+            int from = lowerBound(grid.cells, row << 32 | colMin);
+            int to = lowerBound(grid.cells, row << 32 | (colMax + 1));
+            for (int i = from; i < to; i++) {
+                double distance = distance(x, y, grid.xs[i], grid.ys[i]);
+                if (distance <= radius) {
+                    hits.add(new Hit(grid.ids[i], round(distance)));
+                }
+            }
+        }
+        //3. 按距离、店铺id排序
+        hits.sort(Comparator.comparingDouble((Hit hit) -> hit.distance).thenComparingLong(hit -> hit.id));
+        return hits;
+    }
+
+    private static final class Hit {
+        private final long id;
+        private final double distance;
+
+        private Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * 一个店铺类型的网格，数组按格子编号、店铺id排序
+     */
+    private static final class Grid {
+        private static final Grid EMPTY = new Grid(new long[0], new double[0], new double[0], new long[0]);
+
+        // 从网格中移除店铺
+        private static final double[] REMOVED = new double[0];
+
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+        private final long[] cells;
+
+        private Grid(long[] ids, double[] xs, double[] ys, long[] cells) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.cells = cells;
+        }
+
+        private static Grid build(long[] ids, double[] xs, double[] ys) {
+            int n = ids.length;
+            long[] cells = new long[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                cells[i] = cellOf(xs[i], ys[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> cells[a] != cells[b] ? Long.compare(cells[a], cells[b]) : Long.compare(ids[a], ids[b]));
+            long[] sortedIds = new long[n];
+            double[] sortedXs = new double[n];
+            double[] sortedYs = new double[n];
+            long[] sortedCells = new long[n];
+            for (int i = 0; i < n; i++) {
+                int j = order[i];
+                sortedIds[i] = ids[j];
+                sortedXs[i] = xs[j];
+                sortedYs[i] = ys[j];
+                sortedCells[i] = cells[j];
+            }
+            return new Grid(sortedIds, sortedXs, sortedYs, sortedCells);
+        }
+
+        /**
+         * 复制出应用一批变化后的网格，没有变化时返回自身
+         * @param changes 店铺id -> 新坐标 {x, y}，移除时为 REMOVED
+         */
+        private Grid apply(Map<Long, double[]> changes) {
+            //1. 标记需要去掉的行，坐标没有变化的店铺保留原样
+            Map<Long, double[]> added = new HashMap<>(changes);
+            int n = ids.length;
+            boolean[] dropped = new boolean[n];
+            int droppedCount = 0;
+            for (int i = 0; i < n; i++) {
+                double[] change = added.get(ids[i]);
+                if (change == null) {
+                    continue;
+                }
+                if (change != REMOVED && change[0] == xs[i] && change[1] == ys[i]) {
+                    added.remove(ids[i]);
+                    continue;
+                }
+                dropped[i] = true;
+                droppedCount++;
+            }
+            added.values().removeIf(change -> change == REMOVED);
+            if (droppedCount == 0 && added.isEmpty()) {
+                return this;
+            }
+            //2. 新坐标单独排序
+            long[] addIds = new long[added.size()];
+            double[] addXs = new double[added.size()];
+            double[] addYs = new double[added.size()];
+            int k = 0;
+            for (Map.Entry<Long, double[]> entry : added.entrySet()) {
+                addIds[k] = entry.getKey();
+                addXs[k] = entry.getValue()[0];
+                addYs[k] = entry.getValue()[1];
+                k++;
+            }
+            Grid addition = build(addIds, addXs, addYs);
+            //3. 按 (格子编号, 店铺id) 归并保留的行和新坐标
+            int size = n - droppedCount + addition.ids.length;
+            long[] newIds = new long[size];
+            double[] newXs = new double[size];
+            double[] newYs = new double[size];
+            long[] newCells = new long[size];
+            int i = 0;
+            int j = 0;
+            for (int out = 0; out < size; out++) {
+                while (i < n && dropped[i]) {
+                    i++;
+                }
+                boolean takeOld = j >= addition.ids.length || (i < n && (cells[i] != addition.cells[j]
+                        ? cells[i] < addition.cells[j] : ids[i] < addition.ids[j]));
+                Grid from = takeOld ? this : addition;
+                int index = takeOld ? i++ : j++;
+                newIds[out] = from.ids[index];
+                newXs[out] = from.xs[index];
+                newYs[out] = from.ys[index];
+                newCells[out] = from.cells[index];
+            }
+            return new Grid(newIds, newXs, newYs, newCells);
+        }
+    }
+}
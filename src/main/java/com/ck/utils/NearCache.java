@@ -0,0 +1,117 @@
+package com.ck.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的近端缓存，保存已经反序列化好的对象
+ * 1. 按数据的序列化长度计算占用，总占用超过上限时先淘汰已过期的数据，再淘汰任意数据
+ * 2. 每条数据都有过期时间，不超过本地最大存活时间，也不超过数据本身的逻辑过期时间
+ * 3. 返回的是共享对象，调用方不能修改
+ */
+public class NearCache {
+
+    /**
+     * 空值标记，用于缓存数据库中不存在的数据
+     */
+    public static final Object NULL = new Object();
+
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final Map<String, Entry> map = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+
+    public NearCache(long maxWeight, long ttlMillis) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 获取未过期的数据，不存在时返回null
+     */
+    public Object get(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt <= System.currentTimeMillis()) {
+            remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @param value      已反序列化的对象，或 NULL
+     * @param weight     数据的序列化长度
+     * @param expireAt   数据本身的过期时间（毫秒时间戳），Long.MAX_VALUE 表示只按本地存活时间过期
+     */
+    public void put(String key, Object value, int weight, long expireAt) {
+        if (weight > maxWeight) {
+            return;
+        }
+        Entry entry = new Entry(value, weight, Math.min(expireAt, System.currentTimeMillis() + ttlMillis));
+        Entry old = map.put(key, entry);
+        this.weight.addAndGet(weight - (old == null ? 0 : old.weight));
+        if (this.weight.get() > maxWeight) {
+            evict();
+        }
+    }
+
+    public void invalidate(String key) {
+        Entry old = map.remove(key);
+        if (old != null) {
+            weight.addAndGet(-old.weight);
+        }
+    }
+
+    public void clear() {
+        map.clear();
+        weight.set(0);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    private void remove(String key, Entry entry) {
+        if (map.remove(key, entry)) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    private synchronized void evict() {
+        long now = System.currentTimeMillis();
+        //1. 淘汰已经过期的数据
+        for (Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().expireAt <= now) {
+                remove(e.getKey(), e.getValue());
+            }
+        }
+        //2. 仍然超出上限，按遍历顺序淘汰，直到降到上限的90%
+        long target = maxWeight * 9 / 10;
+        for (Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator(); it.hasNext() && weight.get() > target; ) {
+            Map.Entry<String, Entry> e = it.next();
+            remove(e.getKey(), e.getValue());
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final int weight;
+        private final long expireAt;
+
+        private Entry(Object value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.ck.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.ck.dto.Result;
+import com.ck.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.ck.utils.RedisConstants.*;
+
+/**
+ * 异步订单的处理状态
+ * 1. lua脚本下单成功后写入 order:status:{orderId}，状态为 queued
+ * 2. 订单消费者落库后更新为 persisted，进入死信队列时更新为 failed 并记录原因
+ * 3. 状态变化通过redis发布订阅通知所有节点，唤醒在本节点长轮询该订单的请求
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+
+    public static final String QUEUED = "queued";
+    public static final String PERSISTED = "persisted";
+    public static final String FAILED = "failed";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 本节点正在长轮询的请求，订单id -> 等待结果
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((MessageListener) (message, pattern) -> {
+            String ids = new String(message.getBody(), StandardCharsets.UTF_8);
+            for (String id : ids.split(",")) {
+                notifyWaiters(Long.valueOf(id));
+            }
+        }, new ChannelTopic(ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 秒杀下单成功后记录订单状态为排队中
+     * 消费者可能已经落库并写入了 persisted，只在没有状态时写入，不覆盖
+     */
+    public void markQueuedIfAbsent(VoucherOrder voucherOrder) {
+        write(Collections.singletonList(voucherOrder), QUEUED, null, true);
+    }
+
+    /**
+     * 批量标记订单已落库，一次pipeline写入
+     */
+    public void markPersisted(Collection<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        write(voucherOrders, PERSISTED, null, false);
+        publish(voucherOrders.stream().map(order -> order.getId().toString()).collect(Collectors.joining(",")));
+    }
+
+    public void markFailed(VoucherOrder voucherOrder, String reason) {
+        write(Collections.singletonList(voucherOrder), FAILED, reason, false);
+        publish(voucherOrder.getId().toString());
+    }
+
+    public void markQueued(VoucherOrder voucherOrder) {
+        write(Collections.singletonList(voucherOrder), QUEUED, null, false);
+        publish(voucherOrder.getId().toString());
+    }
+
+    /**
+     * 一次pipeline写入订单状态
+     * 每次都写入用户id和优惠券id：状态过期后的更新（如重新投递死信）会重新创建hash，查询时仍能校验订单归属
+     * @param ifAbsent 为true时只在没有状态时写入status
+     */
+    private void write(Collection<VoucherOrder> voucherOrders, String status, String reason, boolean ifAbsent) {
+        byte[] statusField = bytes("status");
+        byte[] reasonField = bytes("reason");
+        long ttl = TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                byte[] key = bytes(ORDER_STATUS_KEY + voucherOrder.getId());
+                if (ifAbsent) {
+                    connection.hSetNX(key, statusField, bytes(status));
+                } else {
+                    connection.hSet(key, statusField, bytes(status));
+                }
+                Map<byte[], byte[]> owner = new HashMap<>(4);
+                owner.put(bytes("userId"), bytes(voucherOrder.getUserId().toString()));
+                owner.put(bytes("voucherId"), bytes(voucherOrder.getVoucherId().toString()));
+                connection.hMSet(key, owner);
+                if (reason != null) {
+                    connection.hSet(key, reasonField, bytes(reason));
+                } else if (!ifAbsent) {
+                    connection.hDel(key, reasonField);
+                }
+                connection.expire(key, ttl);
+            }
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void publish(String ids) {
+        stringRedisTemplate.convertAndSend(ORDER_STATUS_CHANNEL, ids);
+    }
+
+    /**
+     * 查询订单状态，订单仍在排队且 waitMillis > 0 时长轮询，状态变化或超时后返回
+     */
+    public DeferredResult<Result> query(Long orderId, Long userId, long waitMillis) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>(waitMillis);
+        Map<Object, Object> status = get(orderId, userId);
+        if (status == null || !QUEUED.equals(status.get("status")) || waitMillis <= 0) {
+            deferredResult.setResult(toResult(status));
+            return deferredResult;
+        }
+        //1. 注册等待
+        Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(orderId, id -> new ConcurrentLinkedQueue<>());
+        queue.add(deferredResult);
+        Runnable remove = () -> {
+            queue.remove(deferredResult);
+            if (queue.isEmpty()) {
+                waiters.remove(orderId, queue);
+            }
+        };
+        deferredResult.onTimeout(() -> {
+            remove.run();
+            deferredResult.setResult(toResult(get(orderId, userId)));
+        });
+        deferredResult.onCompletion(remove);
+        //2. 注册之后再检查一次，避免注册前状态已经变化而错过通知
+        status = get(orderId, userId);
+        if (status == null || !QUEUED.equals(status.get("status"))) {
+            deferredResult.setResult(toResult(status));
+        }
+        return deferredResult;
+    }
+
+    private void notifyWaiters(Long orderId) {
+        Queue<DeferredResult<Result>> queue = waiters.get(orderId);
+        if (queue == null) {
+            return;
+        }
+        Map<Object, Object> status = stringRedisTemplate.opsForHash().entries(ORDER_STATUS_KEY + orderId);
+        DeferredResult<Result> deferredResult;
+        while ((deferredResult = queue.poll()) != null) {
+            deferredResult.setResult(toResult(status.isEmpty() ? null : status));
+        }
+    }
+
+    /**
+     * 查询订单状态，只能查询自己的订单
+     */
+    private Map<Object, Object> get(Long orderId, Long userId) {
+        Map<Object, Object> status = stringRedisTemplate.opsForHash().entries(ORDER_STATUS_KEY + orderId);
+        if (status.isEmpty() || !StrUtil.equals(userId.toString(), (String) status.get("userId"))) {
+            return null;
+        }
+        return status;
+    }
+
+    private Result toResult(Map<Object, Object> status) {
+        return status == null ? Result.fail("订单不存在或已过期") : Result.ok(status);
+    }
+}
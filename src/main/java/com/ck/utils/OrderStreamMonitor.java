@@ -0,0 +1,286 @@
+package com.ck.utils;
+
+import com.ck.dto.StreamStatsDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.ck.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单消息队列的积压监控
+ * 1. 定时采样每个订单stream的 XINFO GROUPS 中订单消费者组的 lag 和 pending 数量，汇总后判断；
+ *    redis 7.0 以下没有 lag 字段，按最后一条消息是否已读取和stream长度估算
+ * 2. 积压超过阈值时，秒杀请求在执行lua脚本之前直接返回"排队人数过多"
+ * 3. 统计完成后按已ACK的位置 XTRIM MINID 裁剪stream，已经处理完的消息不再占用内存；裁剪失败不影响统计
+ * 4. MINID 需要 redis 6.2 及以上，低版本不裁剪（MAXLEN 可能删掉未ACK的消息），lag 改为从 last-delivered-id
+ *    向后数消息，最多数到 max-lag + 1 条
+ */
+@Slf4j
+@Component
+public class OrderStreamMonitor {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockRouter seckillStockRouter;
+
+    /**
+     * 未读取消息数超过该值后拒绝秒杀请求
+     */
+    @Value("${seckill.order.max-lag:100000}")
+    private long maxLag;
+
+    /**
+     * 未ACK消息数超过该值后拒绝秒杀请求
+     */
+    @Value("${seckill.order.max-pending:50000}")
+    private long maxPending;
+
+    private volatile StreamStatsDTO stats = new StreamStatsDTO();
+
+    private volatile boolean overloaded;
+
+    // 是否支持 XTRIM MINID，第一次裁剪时按redis版本判断
+    private volatile Boolean minIdSupported;
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public StreamStatsDTO getStats() {
+        return stats;
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.order.monitor-interval-millis:1000}")
+    public void sample() {
+        //1. 汇总每个订单stream的积压
+        StreamStatsDTO current = new StreamStatsDTO();
+        long length = 0;
+        long pending = 0;
+        long lag = 0;
+        List<String> streams = seckillStockRouter.orderStreams();
+        for (String stream : streams) {
+            String lastDeliveredId;
+            long streamPending;
+            try {
+                // 查询消费者组信息 XINFO GROUPS stream.orders:{voucherId:i}
+                Map<String, Object> group = queryGroupInfo(stream);
+                if (group == null) {
+                    continue;
+                }
+                streamPending = toLong(group.get("pending"));
+                lastDeliveredId = toStr(group.get("last-delivered-id"));
+                long streamLength = stringRedisTemplate.opsForStream().size(stream);
+                // lag 字段需要 redis 7.0 及以上版本，删除或裁剪过消息后也可能为空，此时估算
+                Object streamLag = group.get("lag");
+                lag += streamLag != null ? toLong(streamLag) : estimateLag(stream, lastDeliveredId, streamLength, streamPending);
+                pending += streamPending;
+                length += streamLength;
+            } catch (Exception e) {
+                log.error("采样订单队列异常，stream: {}", stream, e);
+                continue;
+            }
+            //2. 裁剪已ACK的消息，失败时只记录日志，不影响积压判断
+            try {
+                trimAcknowledged(stream, lastDeliveredId, streamPending);
+            } catch (Exception e) {
+                log.error("裁剪订单队列异常，stream: {}", stream, e);
+            }
+        }
+        current.setStreams(streams.size());
+        current.setLength(length);
+        current.setPending(pending);
+        current.setLag(lag);
+        current.setSampledAt(System.currentTimeMillis());
+        //3. 判断是否积压
+        boolean over = current.getPending() > maxPending || current.getLag() > maxLag;
+        if (over != overloaded) {
+            log.warn("订单队列{}，lag: {}, pending: {}", over ? "积压，开始拒绝秒杀请求" : "恢复正常",
+                    current.getLag(), current.getPending());
+        }
+        current.setOverloaded(over);
+        overloaded = over;
+        stats = current;
+    }
+
+    /**
+     * 最早未ACK的消息之前、以及last-delivered-id之前的消息都已经处理完成，可以删除
+     */
+    private void trimAcknowledged(String stream, String lastDeliveredId, long pending) {
+        String minId = lastDeliveredId;
+        if (minId == null || "0-0".equals(minId) || !isMinIdSupported()) {
+            return;
+        }
+        if (pending > 0) {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, SECKILL_ORDER_GROUP);
+            if (summary != null && summary.minMessageId() != null) {
+                minId = summary.minMessageId();
+            }
+        }
+        // XTRIM stream.orders:{voucherId:i} MINID ~ id，删除id之前的所有消息
+        String trimId = minId;
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                stream.getBytes(StandardCharsets.UTF_8),
+                "MINID".getBytes(StandardCharsets.UTF_8),
+                "~".getBytes(StandardCharsets.UTF_8),
+                trimId.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * redis 6.2 及以上支持 XTRIM MINID
+     */
+    private boolean isMinIdSupported() {
+        Boolean supported = minIdSupported;
+        if (supported == null) {
+            Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("server"));
+            String version = info == null ? null : info.getProperty("redis_version");
+            supported = version != null && compareVersions(version, "6.2") >= 0;
+            if (!supported) {
+                log.warn("redis版本 {} 不支持 XTRIM MINID，订单stream不裁剪，lag按消息数统计", version);
+            }
+            minIdSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * 估算消费者组尚未读取的消息数，最后一条消息已经被读取时为0
+     * 1. stream会裁剪到最早未ACK的消息，剩余长度减去未ACK数不小于实际值
+     * 2. 不裁剪时长度包含所有已处理的消息，改为从 last-delivered-id 向后数，超过 max-lag 即可判断积压，不再往后数
+     */
+    private long estimateLag(String stream, String lastDeliveredId, long length, long pending) {
+        String lastEntryId = lastEntryId(stream);
+        if (lastEntryId == null || (lastDeliveredId != null && compareIds(lastDeliveredId, lastEntryId) >= 0)) {
+            return 0;
+        }
+        if (isMinIdSupported()) {
+            return Math.max(length - pending, 1);
+        }
+        // XRANGE key lastDeliveredId + COUNT maxLag + 2，起点包含 last-delivered-id 本身
+        String from = lastDeliveredId == null ? "0-0" : lastDeliveredId;
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(stream,
+                Range.rightUnbounded(Range.Bound.inclusive(from)),
+                RedisZSetCommands.Limit.limit().count((int) Math.min(maxLag + 2, Integer.MAX_VALUE)));
+        long undelivered = 0;
+        if (records != null) {
+            for (MapRecord<String, Object, Object> record : records) {
+                if (compareIds(record.getId().getValue(), from) > 0) {
+                    undelivered++;
+                }
+            }
+        }
+        return Math.max(undelivered, 1);
+    }
+
+    /**
+     * 订单stream中的消息是否都已经处理完成：没有未ACK的消息，且最后一条消息已经被消费者组读取
+     * 落库失败的消息已经转入死信队列并ACK，不影响判断
+     */
+    public boolean isDrained(String stream) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return true;
+        }
+        Map<String, Object> group = queryGroupInfo(stream);
+        if (group == null) {
+            return false;
+        }
+        if (toLong(group.get("pending")) > 0) {
+            return false;
+        }
+        String lastEntryId = lastEntryId(stream);
+        return lastEntryId == null || compareIds(toStr(group.get("last-delivered-id")), lastEntryId) >= 0;
+    }
+
+    /**
+     * stream中最后一条消息的id XREVRANGE key + - COUNT 1
+     */
+    private String lastEntryId(String stream) {
+        List<MapRecord<String, Object, Object>> last = stringRedisTemplate.opsForStream()
+                .reverseRange(stream, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+        return last == null || last.isEmpty() ? null : last.get(0).getId().getValue();
+    }
+
+    /**
+     * 比较两个版本号，例如 6.0.16 和 6.2
+     */
+    private static int compareVersions(String a, String b) {
+        String[] partsA = a.split("\\.");
+        String[] partsB = b.split("\\.");
+        for (int i = 0; i < Math.max(partsA.length, partsB.length); i++) {
+            int numberA = i < partsA.length ? versionNumber(partsA[i]) : 0;
+            int numberB = i < partsB.length ? versionNumber(partsB[i]) : 0;
+            if (numberA != numberB) {
+                return Integer.compare(numberA, numberB);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 版本号中的一段，忽略 -rc1 之类的后缀
+     */
+    private static int versionNumber(String part) {
+        String digits = part.replaceAll("\\D.*", "");
+        return digits.isEmpty() ? 0 : Integer.parseInt(digits);
+    }
+
+    /**
+     * 比较两个消息id，格式为 毫秒时间戳-序号
+     */
+    private static int compareIds(String a, String b) {
+        String[] partsA = a.split("-");
+        String[] partsB = b.split("-");
+        int result = Long.compare(Long.parseLong(partsA[0]), Long.parseLong(partsB[0]));
+        return result != 0 ? result : Long.compare(Long.parseLong(partsA[1]), Long.parseLong(partsB[1]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> queryGroupInfo(String stream) {
+        Object result = stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XINFO",
+                "GROUPS".getBytes(StandardCharsets.UTF_8),
+                stream.getBytes(StandardCharsets.UTF_8)));
+        if (!(result instanceof List)) {
+            return null;
+        }
+        for (Object item : (List<Object>) result) {
+            // 每个消费者组是 [name, g1, consumers, 1, pending, 0, ...] 形式的键值对列表
+            List<Object> fields = (List<Object>) item;
+            Map<String, Object> group = new HashMap<>(fields.size());
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                group.put(toStr(fields.get(i)), fields.get(i + 1));
+            }
+            if (SECKILL_ORDER_GROUP.equals(toStr(group.get("name")))) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static String toStr(Object value) {
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static long toLong(Object value) {
+        String str = toStr(value);
+        return str == null ? 0L : Long.parseLong(str);
+    }
+}
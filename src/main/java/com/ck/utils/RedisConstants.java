@@ -10,15 +10,37 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOGICAL_TTL = 20L;
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+    public static final String CACHE_BLOOM_RECENT_KEY = "cache:bloom:recent:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ACTIVE_KEY = "seckill:active";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    public static final String SECKILL_SHARDS_CHANNEL = "seckill:shards";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_STREAMS_KEY = "seckill:streams";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 30L;
+    public static final String ORDER_STATUS_CHANNEL = "order:status";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
     public static final String USER_SIGN_KEY = "sign:";
 }
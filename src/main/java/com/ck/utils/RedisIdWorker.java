@@ -1,13 +1,29 @@
 package com.ck.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局id生成器：时间戳(31位) + 当天的序列号(32位)
+ * 号段模式：每个节点用一次 INCRBY icr:{prefix}:{yyyy:MM:dd} {segmentSize} 租用一段序列号，在本地依次发放，
+ * 剩余数量低于水位时异步预取下一段；segmentSize 为1时退化为每个id一次 INCR
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
@@ -20,22 +36,155 @@ public class RedisIdWorker {
      */
     public static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 异步预取号段的线程
+    private static final ExecutorService ID_SEGMENT_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 每次租用的序列号数量
+     */
+    @Value("${id-worker.segment-size:1000}")
+    private int segmentSize;
+
+    // 当天的日期key，按天缓存
+    private volatile Day today;
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
     public long nextId(String keyPrefix){
-        //1. 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        //1. 生成时间戳（本地时间按UTC换算成秒，与日期key保持一致）
+        long epochSecond = System.currentTimeMillis() / 1000;
+        Day day = currentDay(epochSecond);
+        long nowSecond = epochSecond + day.offsetSeconds;
         long timeStamp = nowSecond - BEGIN_TIMESTAMP;
         //2. 生成序列号
-        //2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2 自增长
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
-
+        long count;
+        if (segmentSize <= 1) {
+            //2.1 每个id自增一次
+            count = increment(keyPrefix, day.date, 1);
+        } else {
+            //2.2 从本地号段中获取
+            count = segments.computeIfAbsent(keyPrefix, Segment::new).next(day.date);
+        }
         //3. 拼接并返回
         return timeStamp << COUNT_BITS | count;
     }
-}
 
+    private long increment(String keyPrefix, String date, long delta) {
+        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, delta);
+        if (count == null) {
+            throw new IllegalStateException("生成序列号失败：" + keyPrefix);
+        }
+        return count;
+    }
+
+    /**
+     * 获取当天的日期key，跨天时才重新格式化
+     */
+    private Day currentDay(long epochSecond) {
+        Day day = today;
+        if (day != null && epochSecond >= day.startSecond && epochSecond < day.endSecond) {
+            return day;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate date = Instant.ofEpochSecond(epochSecond).atZone(zone).toLocalDate();
+        day = new Day(date.format(DATE_FORMATTER),
+                date.atStartOfDay(zone).toEpochSecond(),
+                date.plusDays(1).atStartOfDay(zone).toEpochSecond(),
+                zone.getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds());
+        today = day;
+        return day;
+    }
+
+    private static class Day {
+        private final String date;
+        private final long startSecond;
+        private final long endSecond;
+        private final int offsetSeconds;
+
+        private Day(String date, long startSecond, long endSecond, int offsetSeconds) {
+            this.date = date;
+            this.startSecond = startSecond;
+            this.endSecond = endSecond;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+
+    /**
+     * 一段已租用的序列号 [cursor, max]，只属于某一天
+     */
+    private static class Range {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Range(String date, long min, long max) {
+            this.date = date;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 某个业务前缀的号段，当前号段用完时切换到预取好的号段
+     */
+    private class Segment {
+        private final String keyPrefix;
+        private volatile Range current;
+        private volatile Range next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        private Segment(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Range range = current;
+                if (range != null && range.date.equals(date)) {
+                    long value = range.cursor.getAndIncrement();
+                    if (value <= range.max) {
+                        // 剩余数量到达水位，异步预取下一段
+                        if (range.max - value == segmentSize / 5) {
+                            prefetch(date);
+                        }
+                        return value;
+                    }
+                }
+                // 号段用完或跨天，切换号段；跨天时旧号段作废，避免与新一天的序列号重复
+                synchronized (this) {
+                    if (current == range) {
+                        Range prefetched = next;
+                        next = null;
+                        current = prefetched != null && prefetched.date.equals(date) ? prefetched : lease(date);
+                    }
+                }
+            }
+        }
+
+        private void prefetch(String date) {
+            if (!loading.compareAndSet(false, true)) {
+                return;
+            }
+            ID_SEGMENT_EXECUTOR.submit(() -> {
+                try {
+                    next = lease(date);
+                } catch (Exception e) {
+                    log.error("预取号段失败，keyPrefix: {}", keyPrefix, e);
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+
+        private Range lease(String date) {
+            long max = increment(keyPrefix, date, segmentSize);
+            return new Range(date, max - segmentSize + 1, max);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.ck.utils;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import com.ck.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
@@ -18,8 +19,15 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private HotKeyDetector hotKeyDetector;
+
+    private CacheMetrics cacheMetrics;
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, HotKeyDetector hotKeyDetector,
+                                   CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
     }
 
     @Override
@@ -32,17 +40,30 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         }
         //2. 根据token从redis中的用户
         String tokenKey = RedisConstants.LOGIN_USER_KEY + token;
+        //2.1 请求频繁的token，用户信息固定在本地，短时间内不再查询redis
+        //    热点key会被统计和查询，只记录token的摘要，不记录token本身
+        String hotKey = RedisConstants.LOGIN_USER_KEY + DigestUtil.sha256Hex(token);
+        hotKeyDetector.record(hotKey);
+        Object pinned = hotKeyDetector.getPinned(hotKey);
+        if (pinned instanceof UserDTO) {
+            cacheMetrics.recordHit(RedisConstants.LOGIN_USER_KEY, true);
+            UserHolder.saveUser((UserDTO) pinned);
+            return true;
+        }
         Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
         //3. 判断用户是否存在
         if(userMap.isEmpty()){
+            cacheMetrics.recordMiss(RedisConstants.LOGIN_USER_KEY);
             return true;
         }
+        cacheMetrics.recordHit(RedisConstants.LOGIN_USER_KEY, false);
         //5. 将查询到的Hash数据转为UserDTO对象
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         //6. 存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
         //7. 刷新token有效期
         stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        hotKeyDetector.pinIfHot(hotKey, userDTO, userMap.size(), Long.MAX_VALUE);
         //8. 放行
         return true;
     }
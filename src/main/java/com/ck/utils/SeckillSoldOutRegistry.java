@@ -0,0 +1,73 @@
+package com.ck.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.ck.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.ck.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记
+ * 1. lua脚本返回库存不足后，在本地记录该优惠券已售罄，并通过redis发布订阅通知所有节点
+ * 2. 已售罄的优惠券直接在内存中拒绝，不再生成订单id、不再执行lua脚本
+ * 3. 新建秒杀券时清除标记，避免提前请求不存在的优惠券导致误判
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(
+                (MessageListener) (message, pattern) -> soldOut.add(parseVoucherId(message)),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(
+                (MessageListener) (message, pattern) -> soldOut.remove(parseVoucherId(message)),
+                new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.contains(voucherId);
+    }
+
+    /**
+     * 标记售罄并广播，本节点已经标记过则不再广播
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.add(voucherId)) {
+            log.debug("优惠券已售罄，voucherId: {}", voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 清除售罄标记并广播
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    private Long parseVoucherId(Message message) {
+        return Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,262 @@
+package com.ck.utils;
+
+import org.springframework.dao.RedisSystemException;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.ck.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ * 1. 不分片（分片数为1）时使用 seckill:stock:{voucherId}、seckill:order:{voucherId}、seckill:voucher:{voucherId}、
+ *    stream.orders:{voucherId}
+ * 2. 分片时库存拆成K个子库存，每个分片有自己的用户集合、秒杀信息和订单stream：seckill:stock:{voucherId:i}、
+ *    seckill:order:{voucherId:i}、seckill:voucher:{voucherId:i}、stream.orders:{voucherId:i}，
+ *    hash tag 保证lua脚本用到的key落在同一个slot，不同分片分散到不同节点
+ * 3. 用户按id哈希路由到自己的分片，分片卖完后按固定顺序依次尝试相邻分片
+ * 4. 购买记录有两种存储方式：一人一单时使用按用户id分桶的bitmap（seckill:order:...:b{桶号}），
+ *    每个用户只占1个bit，用到的桶记录在 seckill:order:...:buckets 中；限购多单时使用 hash 记录用户id -> 已购数量
+ * 5. 所有订单stream记录在 seckill:streams 中，订单消费者依次读取每个stream
+ * 6. 分片数在本地缓存，初始化或删除秒杀数据后通过redis发布订阅通知所有节点清除，缓存最多保留1分钟，兜底丢失的通知
+ */
+@Component
+public class SeckillStockRouter {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * bitmap分桶的位数，每个桶最多 2^15 bit = 4KB，稀疏的用户id每个最多占用一个4KB的桶
+     */
+    private static final int BITMAP_BUCKET_BITS = 15;
+
+    public static final String TRACKER_BITMAP = "bitmap";
+    public static final String TRACKER_HASH = "hash";
+
+    /**
+     * 订单stream列表的本地缓存时间，新创建的秒杀券最多延迟这么久被消费者读取
+     */
+    private static final long ORDER_STREAM_REFRESH_MILLIS = 1000L;
+
+    /**
+     * 分片数的本地缓存时间，没有收到清除通知时最多延迟这么久读取到新的分片数
+     */
+    private static final long SHARD_COUNT_REFRESH_MILLIS = 60_000L;
+
+    // 优惠券id -> {分片数, 读取时间}，本地缓存避免每次秒杀都查询redis
+    private final Map<Long, long[]> shardCountCache = new ConcurrentHashMap<>();
+
+    // 订单stream列表，消费者每一轮都要遍历，定期从redis刷新
+    private volatile List<String> orderStreamCache = Collections.emptyList();
+    private volatile long orderStreamLoadedAt;
+
+    @PostConstruct
+    private void init() {
+        // 订阅分片数变化，消息为优惠券id
+        redisMessageListenerContainer.addMessageListener((MessageListener) (message, pattern) ->
+                shardCountCache.remove(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_SHARDS_CHANNEL));
+    }
+
+    /**
+     * 初始化秒杀库存，库存平均分配到各个分片，余数分给前面的分片
+     * 每个分片同时写入秒杀时间窗口和每人限购数量，供lua脚本在一次调用内完成校验
+     */
+    public void initStock(Long voucherId, int stock, int shards, long beginEpoch, long endEpoch, int limitPerUser) {
+        shards = Math.max(shards, 1);
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        Map<String, String> voucherInfo = new HashMap<>(4);
+        voucherInfo.put("begin", String.valueOf(beginEpoch));
+        voucherInfo.put("end", String.valueOf(endEpoch));
+        voucherInfo.put("limit", String.valueOf(Math.max(limitPerUser, 1)));
+        voucherInfo.put("tracker", limitPerUser <= 1 ? TRACKER_BITMAP : TRACKER_HASH);
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            stringRedisTemplate.opsForHash().putAll(voucherKey(voucherId, shards, i), voucherInfo);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, shards, i), String.valueOf(shardStock));
+            registerOrderStream(orderStreamKey(voucherId, shards, i));
+        }
+        shardCountCache.put(voucherId, new long[]{shards, System.currentTimeMillis()});
+        stringRedisTemplate.convertAndSend(SECKILL_SHARDS_CHANNEL, voucherId.toString());
+        // 记录秒杀结束时间，用于结束后清理redis中的秒杀数据
+        stringRedisTemplate.opsForZSet().add(SECKILL_ACTIVE_KEY, voucherId.toString(), endEpoch);
+    }
+
+    /**
+     * redis中是否已有该优惠券的秒杀数据，用于预热，不覆盖正在秒杀的库存
+     */
+    public boolean hasStock(Long voucherId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_SHARDS_KEY + voucherId));
+    }
+
+    /**
+     * 查询优惠券的库存分片数
+     */
+    public int shardCount(Long voucherId) {
+        long now = System.currentTimeMillis();
+        long[] cached = shardCountCache.get(voucherId);
+        if (cached != null && now - cached[1] < SHARD_COUNT_REFRESH_MILLIS) {
+            return (int) cached[0];
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (value == null) {
+            // 未记录分片数的优惠券按不分片处理，不缓存，以便之后创建时生效
+            shardCountCache.remove(voucherId);
+            return 1;
+        }
+        int shards = Integer.parseInt(value);
+        shardCountCache.put(voucherId, new long[]{shards, now});
+        return shards;
+    }
+
+    /**
+     * 用户所属的分片
+     */
+    public int homeShard(Long userId, int shards) {
+        return Math.floorMod(userId.hashCode(), shards);
+    }
+
+    /**
+     * 分片的 hash tag，同一分片的key落在同一个slot
+     */
+    private String shardTag(Long voucherId, int shards, int shard) {
+        return shards <= 1 ? "{" + voucherId + "}" : "{" + voucherId + ":" + shard + "}";
+    }
+
+    public String stockKey(Long voucherId, int shards, int shard) {
+        return SECKILL_STOCK_KEY + shardTag(voucherId, shards, shard);
+    }
+
+    public String orderKey(Long voucherId, int shards, int shard) {
+        return SECKILL_ORDER_KEY + shardTag(voucherId, shards, shard);
+    }
+
+    /**
+     * 分片的订单stream，由lua脚本在扣减库存的同时写入
+     */
+    public String orderStreamKey(Long voucherId, int shards, int shard) {
+        return SECKILL_ORDER_STREAM + ":" + shardTag(voucherId, shards, shard);
+    }
+
+    /**
+     * 创建订单stream和消费者组 XGROUP CREATE key g1 0 MKSTREAM，并记录到stream列表中
+     */
+    public void registerOrderStream(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            // BUSYGROUP，消费者组已经存在
+        }
+        stringRedisTemplate.opsForSet().add(SECKILL_ORDER_STREAMS_KEY, streamKey);
+    }
+
+    /**
+     * 所有订单stream
+     */
+    public List<String> orderStreams() {
+        long now = System.currentTimeMillis();
+        if (now - orderStreamLoadedAt >= ORDER_STREAM_REFRESH_MILLIS) {
+            Set<String> streams = stringRedisTemplate.opsForSet().members(SECKILL_ORDER_STREAMS_KEY);
+            orderStreamCache = streams == null ? Collections.emptyList() : new ArrayList<>(streams);
+            orderStreamLoadedAt = now;
+        }
+        return orderStreamCache;
+    }
+
+    /**
+     * 一人一单时记录购买用户的bitmap，按用户id分桶
+     */
+    public String purchaserBitmapKey(Long voucherId, int shards, int shard, Long userId) {
+        return orderKey(voucherId, shards, shard) + ":b" + (userId >>> BITMAP_BUCKET_BITS);
+    }
+
+    /**
+     * 记录分片用到的bitmap桶的set，与分片的其他key在同一个slot，清理时不需要扫描整个keyspace
+     */
+    public String purchaserBucketsKey(Long voucherId, int shards, int shard) {
+        return orderKey(voucherId, shards, shard) + ":buckets";
+    }
+
+    /**
+     * 用户在所属bitmap桶中的偏移量
+     */
+    public long purchaserBitOffset(Long userId) {
+        return userId & ((1L << BITMAP_BUCKET_BITS) - 1);
+    }
+
+    /**
+     * 删除优惠券在redis中的全部秒杀数据：库存、购买记录（含所有bitmap桶）、秒杀信息、订单stream
+     */
+    public void removeStock(Long voucherId) {
+        int shards = shardCount(voucherId);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            keys.add(stockKey(voucherId, shards, i));
+            keys.add(orderKey(voucherId, shards, i));
+            keys.add(voucherKey(voucherId, shards, i));
+            String streamKey = orderStreamKey(voucherId, shards, i);
+            keys.add(streamKey);
+            stringRedisTemplate.opsForSet().remove(SECKILL_ORDER_STREAMS_KEY, streamKey);
+            // bitmap桶的数量取决于用户id的分布，由lua脚本记录在set中
+            String bucketsKey = purchaserBucketsKey(voucherId, shards, i);
+            Set<String> buckets = stringRedisTemplate.opsForSet().members(bucketsKey);
+            if (buckets != null) {
+                keys.addAll(buckets);
+            }
+            keys.add(bucketsKey);
+        }
+        for (String key : keys) {
+            // 逐个删除，分片的key可能位于不同的slot
+            stringRedisTemplate.delete(key);
+        }
+        stringRedisTemplate.delete(SECKILL_SHARDS_KEY + voucherId);
+        stringRedisTemplate.opsForZSet().remove(SECKILL_ACTIVE_KEY, voucherId.toString());
+        shardCountCache.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SHARDS_CHANNEL, voucherId.toString());
+    }
+
+    public String voucherKey(Long voucherId, int shards, int shard) {
+        return SECKILL_VOUCHER_KEY + shardTag(voucherId, shards, shard);
+    }
+
+    /**
+     * 聚合查询所有分片的剩余库存，一次MGET
+     */
+    public int queryStock(Long voucherId) {
+        int shards = shardCount(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(stockKey(voucherId, shards, i));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        int stock = 0;
+        if (values != null) {
+            for (String value : values) {
+                if (value != null) {
+                    stock += Math.max(Integer.parseInt(value), 0);
+                }
+            }
+        }
+        return stock;
+    }
+}
@@ -0,0 +1,180 @@
+package com.ck.utils;
+
+import com.ck.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static com.ck.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+import static com.ck.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 店铺的GEO索引 shop:geo:{typeId}
+ * 1. 新增、修改店铺时同步GEO，修改类型时从原类型的GEO中移除；在事务中时提交后再写入
+ * 2. 按距离分页查询在lua脚本中完成，只返回一页数据：
+ *    按页码查询时只查询到当前页为止；按游标查询时从上一页最后一个店铺的距离和id继续，
+ *    并根据已返回的数量一次 GEOSEARCH 查询到本页为止，代价与按页码查询同一页相同，随页数增长
+ * 3. 店铺新增、修改提交后广播店铺id，各节点的进程内索引（LocalShopGeoIndex、ShopSearchIndex）据此刷新
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ShopLocator {
+
+    private static final DefaultRedisScript<List> GEO_PAGE_SCRIPT;
+
+    static {
+        GEO_PAGE_SCRIPT = new DefaultRedisScript<>();
+        GEO_PAGE_SCRIPT.setLocation(new ClassPathResource("geo_page.lua"));
+        GEO_PAGE_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 新增店铺后加入GEO
+     */
+    public void add(Shop shop) {
+        afterCommit(() -> {
+            addAll(Collections.singletonList(shop));
+            stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, shop.getId().toString());
+        });
+    }
+
+    /**
+     * 修改店铺后同步GEO，类型或坐标没有变化时不写入GEO，只通知各节点
+     * @param old     修改前的店铺
+     * @param updated 修改的字段，为null的字段沿用修改前的值
+     */
+    public void update(Shop old, Shop updated) {
+        Long typeId = updated.getTypeId() != null ? updated.getTypeId() : old.getTypeId();
+        Double x = updated.getX() != null ? updated.getX() : old.getX();
+        Double y = updated.getY() != null ? updated.getY() : old.getY();
+        boolean moved = !Objects.equals(typeId, old.getTypeId())
+                || !Objects.equals(x, old.getX()) || !Objects.equals(y, old.getY());
+        Shop current = new Shop();
+        current.setId(old.getId());
+        current.setTypeId(typeId);
+        current.setX(x);
+        current.setY(y);
+        afterCommit(() -> {
+            if (moved) {
+                //1. 类型变化时从原类型的GEO中移除
+                if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+                    stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+                }
+                //2. 写入新的类型和坐标
+                addAll(Collections.singletonList(current));
+            }
+            //3. 通知各节点刷新进程内的店铺索引
+            stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, old.getId().toString());
+        });
+    }
+
+    /**
+     * 用管道按类型分组写入一批店铺，没有类型或坐标的店铺跳过
+     * @return 写入的类型id
+     */
+    public Collection<Long> addAll(Collection<Shop> shops) {
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        if (byType.isEmpty()) {
+            return Collections.emptyList();
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+                // GEOADD key 经度 纬度 member
+                List<RedisGeoCommands.GeoLocation<byte[]>> locations = new ArrayList<>(entry.getValue().size());
+                for (Shop shop : entry.getValue()) {
+                    locations.add(new RedisGeoCommands.GeoLocation<>(
+                            shop.getId().toString().getBytes(StandardCharsets.UTF_8),
+                            new Point(shop.getX(), shop.getY())));
+                }
+                connection.geoCommands().geoAdd((SHOP_GEO_KEY + entry.getKey()).getBytes(StandardCharsets.UTF_8), locations);
+            }
+            return null;
+        });
+        return byType.keySet();
+    }
+
+    @Override
+    public LinkedHashMap<Long, Double> search(Long typeId, double x, double y, int offset, int count) {
+        return page(typeId, x, y, RADIUS_METERS, count, offset, -1, 0, 0);
+    }
+
+    @Override
+    public LinkedHashMap<Long, Double> searchAfter(Long typeId, double x, double y, Double lastDistance, Long lastId, int seen, int count) {
+        if (lastDistance == null) {
+            return page(typeId, x, y, RADIUS_METERS, count, 0, 0, 0, 0);
+        }
+        return page(typeId, x, y, RADIUS_METERS, count, 0, lastDistance, lastId == null ? 0 : lastId, Math.max(seen, 0));
+    }
+
+    /**
+     * 按页码查询第一页，半径取地球半周长，覆盖所有店铺
+     */
+    @Override
+    public LinkedHashMap<Long, Double> nearest(Long typeId, double x, double y, int k) {
+        return page(typeId, x, y, Math.PI * GeoUtils.EARTH_RADIUS, k, 0, -1, 0, 0);
+    }
+
+    private LinkedHashMap<Long, Double> page(Long typeId, double x, double y, double radius, int count, int offset,
+                                             double lastDistance, long lastId, int seen) {
+        List<?> reply = stringRedisTemplate.execute(
+                GEO_PAGE_SCRIPT,
+                Collections.singletonList(SHOP_GEO_KEY + typeId),
+                String.valueOf(x), String.valueOf(y), String.valueOf(radius),
+                String.valueOf(count), String.valueOf(offset), String.valueOf(lastDistance), String.valueOf(lastId),
+                String.valueOf(seen));
+        LinkedHashMap<Long, Double> result = new LinkedHashMap<>();
+        if (reply == null) {
+            return result;
+        }
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            result.put(Long.valueOf(reply.get(i).toString()), Double.valueOf(reply.get(i + 1).toString()));
+        }
+        return result;
+    }
+
+    /**
+     * 在事务中时提交后执行，否则立即执行；GEO写入失败时记录日志，由预热兜底
+     */
+    private void afterCommit(Runnable task) {
+        Runnable guarded = () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("同步店铺GEO失败", e);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            guarded.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                guarded.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package com.ck.utils;
+
+import java.util.Collection;
+
+/**
+ * 从 tb_shop 构建的进程内店铺索引，由 ShopIndexLoader 统一加载、刷新和定期重建
+ */
+public interface ShopIndex {
+
+    /**
+     * 是否启用，未启用时不加载
+     */
+    boolean isEnabled();
+
+    /**
+     * 从数据库全量重建
+     */
+    void reload();
+
+    /**
+     * 按数据库中的最新数据刷新一批店铺，店铺不存在时删除
+     */
+    void refresh(Collection<Long> shopIds);
+}
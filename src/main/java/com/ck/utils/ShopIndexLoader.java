@@ -0,0 +1,101 @@
+package com.ck.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.ck.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+
+/**
+ * 进程内店铺索引（ShopIndex）的加载
+ * 1. 启动时全量加载所有启用的索引
+ * 2. 订阅 ShopGeoIndex 广播的店铺变化，记录店铺id，每隔 refresh-millis 把这段时间内变化的店铺一起交给各个索引刷新
+ * 3. 定期全量重建，兜底丢失的消息
+ */
+@Slf4j
+@Component
+public class ShopIndexLoader {
+
+    @Resource
+    private List<ShopIndex> shopIndexes;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 等待刷新的店铺id
+    private final Set<Long> pendingRefresh = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        if (enabledIndexes().isEmpty()) {
+            return;
+        }
+        reload();
+        // 订阅店铺变化，消息为店铺id，记录下来批量刷新
+        redisMessageListenerContainer.addMessageListener((MessageListener) (message, pattern) ->
+                pendingRefresh.add(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SHOP_CHANGED_CHANNEL));
+    }
+
+    /**
+     * 全量重建所有启用的索引，一个索引失败不影响其他索引
+     */
+    @Scheduled(initialDelayString = "${shop.index.reload-interval-millis:600000}",
+            fixedDelayString = "${shop.index.reload-interval-millis:600000}")
+    public void reload() {
+        for (ShopIndex index : enabledIndexes()) {
+            try {
+                index.reload();
+            } catch (Exception e) {
+                log.error("重建店铺索引失败：{}", index.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * 刷新上一次刷新之后变化的店铺，失败时放回，下一次再刷新
+     */
+    @Scheduled(fixedDelayString = "${shop.index.refresh-millis:1000}")
+    public void flushRefresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        // 逐个取出，取出期间新增的店铺id留到下一次
+        List<Long> shopIds = new ArrayList<>();
+        for (Iterator<Long> it = pendingRefresh.iterator(); it.hasNext(); ) {
+            shopIds.add(it.next());
+            it.remove();
+        }
+        for (ShopIndex index : enabledIndexes()) {
+            try {
+                index.refresh(shopIds);
+            } catch (Exception e) {
+                // 刷新是幂等的，其他索引再刷新一次没有影响
+                pendingRefresh.addAll(shopIds);
+                log.error("刷新店铺索引失败：{}，店铺数: {}", index.getClass().getSimpleName(), shopIds.size(), e);
+            }
+        }
+    }
+
+    private List<ShopIndex> enabledIndexes() {
+        List<ShopIndex> enabled = new ArrayList<>(shopIndexes.size());
+        for (ShopIndex index : shopIndexes) {
+            if (index.isEnabled()) {
+                enabled.add(index);
+            }
+        }
+        return enabled;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ck.utils;
+
+import java.util.LinkedHashMap;
+
+/**
+ * 按距离查询附近的店铺，实现为redis GEO（ShopGeoIndex）或进程内索引（LocalShopGeoIndex），由 shop.geo.index 选择
+ */
+public interface ShopLocator {
+
+    /**
+     * 查询半径，米
+     */
+    int RADIUS_METERS = 5000;
+
+    /**
+     * 按页码查询附近的店铺
+     * @return 店铺id -> 距离（米），按距离排序
+     */
+    LinkedHashMap<Long, Double> search(Long typeId, double x, double y, int offset, int count);
+
+    /**
+     * 按游标查询附近的店铺
+     * @param lastDistance 上一页最后一个店铺的距离，第一页为null
+     * @param lastId       上一页最后一个店铺的id
+     * @param seen         前面的页已经返回的店铺数量，用于一次查询到本页为止，不准确时只影响性能
+     * @return 店铺id -> 距离（米），按距离、店铺id排序
+     */
+    LinkedHashMap<Long, Double> searchAfter(Long typeId, double x, double y, Double lastDistance, Long lastId, int seen, int count);
+
+    /**
+     * 查询最近的k个店铺，不限半径
+     * @return 店铺id -> 距离（米），按距离排序
+     */
+    LinkedHashMap<Long, Double> nearest(Long typeId, double x, double y, int k);
+}
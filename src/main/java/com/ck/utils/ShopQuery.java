@@ -0,0 +1,281 @@
+package com.ck.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 店铺的筛选和排序条件，由 /shop/of/type 的 filter、sort 参数解析，交给 ShopQueryEngine 执行
+ * 1. filter：多个条件用 ; 分隔，每个条件为 字段 运算符 值，例如 score>=40;avgPrice<=100;area=大关;open=now;distance<=3000
+ *    score（评分乘10）、avgPrice、sold、comments 支持 = != > >= < <=；area 支持 = !=；
+ *    open 的值为 now 或 HH:mm，表示该时间正在营业；distance（米）支持 < <=，需要传入坐标，不传时为 <=5000米
+ * 2. sort：字段[:asc|desc]，字段为 distance、score、avgPrice、sold、comments，
+ *    默认方向 distance、avgPrice 升序，其余降序，distance 只支持升序；不传时有坐标按距离排序，否则按评分排序
+ * 3. 格式错误时抛出 IllegalArgumentException，信息可直接返回给前端
+ */
+public class ShopQuery {
+
+    /**
+     * 数值字段，ordinal 为 ShopQueryEngine 中数值列的下标
+     */
+    public enum NumberField {
+        SCORE("score", false), AVG_PRICE("avgPrice", true), SOLD("sold", false), COMMENTS("comments", false);
+
+        private final String name;
+        private final boolean defaultAscending;
+
+        NumberField(String name, boolean defaultAscending) {
+            this.name = name;
+            this.defaultAscending = defaultAscending;
+        }
+
+        private static NumberField of(String name) {
+            for (NumberField field : values()) {
+                if (field.name.equals(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    public enum Op {
+        // 按长度从长到短匹配
+        GE(">="), LE("<="), NE("!="), EQ("="), GT(">"), LT("<");
+
+        private final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public boolean test(long value, long target) {
+            switch (this) {
+                case GE: return value >= target;
+                case LE: return value <= target;
+                case NE: return value != target;
+                case EQ: return value == target;
+                case GT: return value > target;
+                default: return value < target;
+            }
+        }
+    }
+
+    /**
+     * 数值条件
+     */
+    public static class NumberCondition {
+        private final NumberField field;
+        private final Op op;
+        private final long value;
+
+        private NumberCondition(NumberField field, Op op, long value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        public NumberField getField() {
+            return field;
+        }
+
+        public boolean test(long actual) {
+            return op.test(actual, value);
+        }
+    }
+
+    private final List<NumberCondition> numberConditions = new ArrayList<>();
+
+    // 商圈必须等于的值，为null时不限
+    private String areaEquals;
+
+    private final List<String> areaNotEquals = new ArrayList<>();
+
+    // 营业时间需要覆盖的分钟（0 ~ 1439），-1 表示不限
+    private int openMinute = -1;
+
+    private double maxDistance = ShopLocator.RADIUS_METERS;
+
+    // distance 的运算符，< 时不包含等于 maxDistance 的店铺
+    private Op distanceOp = Op.LE;
+
+    private boolean distanceFiltered;
+
+    // 排序字段，为null时按距离排序
+    private NumberField sortField;
+
+    private boolean ascending;
+
+    private ShopQuery() {
+    }
+
+    /**
+     * @param hasLocation 是否传入了坐标
+     */
+    public static ShopQuery parse(String filter, String sort, boolean hasLocation) {
+        ShopQuery query = new ShopQuery();
+        //1. 解析筛选条件
+        if (StrUtil.isNotBlank(filter)) {
+            for (String condition : filter.split(";")) {
+                if (StrUtil.isNotBlank(condition)) {
+                    query.addCondition(condition.trim());
+                }
+            }
+        }
+        if (query.distanceFiltered && !hasLocation) {
+            throw new IllegalArgumentException("按距离筛选需要传入坐标");
+        }
+        //2. 解析排序
+        if (StrUtil.isBlank(sort)) {
+            query.sortField = hasLocation ? null : NumberField.SCORE;
+            query.ascending = hasLocation;
+            return query;
+        }
+        String[] parts = sort.trim().split(":");
+        String name = parts[0].trim();
+        Boolean direction = parts.length > 1 ? parseDirection(parts[1].trim()) : null;
+        if ("distance".equals(name)) {
+            if (!hasLocation) {
+                throw new IllegalArgumentException("按距离排序需要传入坐标");
+            }
+            if (direction != null && !direction) {
+                throw new IllegalArgumentException("距离只支持升序");
+            }
+            query.sortField = null;
+            query.ascending = true;
+            return query;
+        }
+        NumberField field = NumberField.of(name);
+        if (field == null) {
+            throw new IllegalArgumentException("不支持的排序字段：" + name);
+        }
+        query.sortField = field;
+        query.ascending = direction != null ? direction : field.defaultAscending;
+        return query;
+    }
+
+    private void addCondition(String condition) {
+        //1. 字段名为开头的字母
+        int i = 0;
+        while (i < condition.length() && Character.isLetter(condition.charAt(i))) {
+            i++;
+        }
+        String name = condition.substring(0, i);
+        //2. 运算符
+        Op op = null;
+        for (Op candidate : Op.values()) {
+            if (condition.startsWith(candidate.symbol, i)) {
+                op = candidate;
+                break;
+            }
+        }
+        if (name.isEmpty() || op == null) {
+            throw new IllegalArgumentException("筛选条件格式错误：" + condition);
+        }
+        String value = condition.substring(i + op.symbol.length()).trim();
+        //3. 按字段解析值
+        switch (name) {
+            case "area":
+                if (op == Op.EQ) {
+                    areaEquals = value;
+                } else if (op == Op.NE) {
+                    areaNotEquals.add(value);
+                } else {
+                    throw new IllegalArgumentException("area 只支持 = 和 !=");
+                }
+                return;
+            case "open":
+                if (op != Op.EQ) {
+                    throw new IllegalArgumentException("open 只支持 =");
+                }
+                openMinute = parseMinute(value);
+                return;
+            case "distance":
+                if (op != Op.LE && op != Op.LT) {
+                    throw new IllegalArgumentException("distance 只支持 < 和 <=");
+                }
+                maxDistance = parseNumber(condition, value);
+                distanceOp = op;
+                distanceFiltered = true;
+                return;
+            default:
+                NumberField field = NumberField.of(name);
+                if (field == null) {
+                    throw new IllegalArgumentException("不支持的筛选字段：" + name);
+                }
+                numberConditions.add(new NumberCondition(field, op, parseNumber(condition, value)));
+        }
+    }
+
+    private static long parseNumber(String condition, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("筛选条件的值不是整数：" + condition);
+        }
+    }
+
+    private static int parseMinute(String value) {
+        if ("now".equals(value)) {
+            LocalTime now = LocalTime.now();
+            return now.getHour() * 60 + now.getMinute();
+        }
+        try {
+            LocalTime time = LocalTime.parse(value);
+            return time.getHour() * 60 + time.getMinute();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("open 的值应为 now 或 HH:mm：" + value);
+        }
+    }
+
+    private static Boolean parseDirection(String direction) {
+        if ("asc".equals(direction)) {
+            return true;
+        }
+        if ("desc".equals(direction)) {
+            return false;
+        }
+        throw new IllegalArgumentException("排序方向应为 asc 或 desc：" + direction);
+    }
+
+    public List<NumberCondition> getNumberConditions() {
+        return Collections.unmodifiableList(numberConditions);
+    }
+
+    public String getAreaEquals() {
+        return areaEquals;
+    }
+
+    public List<String> getAreaNotEquals() {
+        return Collections.unmodifiableList(areaNotEquals);
+    }
+
+    public int getOpenMinute() {
+        return openMinute;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * 距离（米）是否满足 distance 条件
+     */
+    public boolean isWithinDistance(double distance) {
+        return distanceOp == Op.LT ? distance < maxDistance : distance <= maxDistance;
+    }
+
+    /**
+     * 排序字段，为null时按距离排序
+     */
+    public NumberField getSortField() {
+        return sortField;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+}
@@ -0,0 +1,479 @@
+package com.ck.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ck.entity.Shop;
+import com.ck.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.ck.utils.GeoUtils.*;
+
+/**
+ * 店铺的筛选查询引擎，执行 ShopQuery 的筛选和排序
+ * 1. 每个店铺类型一张进程内的列式表：id、经纬度、格子编号、评分/均价/销量/评论数、商圈编码、营业时间各为一个数组，
+ *    行按格子编号排序，格子的划分见 GeoUtils；每个数值列另有一个按值排序的行号数组
+ * 2. 按距离排序时从用户所在的格子开始一圈一圈向外扫描，凑满 offset + count 个结果、
+ *    且下一圈的最近距离已超过第 offset + count 个结果的距离或筛选半径时停止
+ * 3. 按数值排序时按该列的有序行号依次判断条件，凑满 offset + count 个结果时停止
+ * 4. 两种方式都只扫描排在结果之前的行，不需要取出整个类型的店铺再在java中过滤
+ * 5. 表不可变，店铺变化时从数据库重新查询受影响的类型并重建表再替换，查询不加锁，只保留列式表，不保留店铺对象；
+ *    由 ShopIndexLoader 加载、按批刷新变化的店铺和定期全量重建
+ */
+@Slf4j
+@Component
+public class ShopQueryEngine implements ShopIndex {
+
+    // 查询表用到的字段
+    private static final String[] COLUMNS =
+            {"id", "type_id", "area", "x", "y", "avg_price", "sold", "comments", "score", "open_hours"};
+
+    // 空值，数值条件对空值不成立，排序时排在最后
+    private static final long NULL = Long.MIN_VALUE;
+
+    // 按距离、店铺id排序
+    private static final Comparator<Candidate> BY_DISTANCE =
+            Comparator.comparingDouble((Candidate c) -> c.distance).thenComparingLong(c -> c.shopId);
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${shop.query.enabled:true}")
+    private boolean enabled;
+
+    // 店铺类型 -> 列式表
+    private final Map<Long, Table> tables = new ConcurrentHashMap<>();
+
+    // 店铺id -> 店铺类型，刷新时用于找到店铺原来所属的类型
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从数据库全量重建
+     */
+    @Override
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select(COLUMNS));
+        load(shops);
+        log.info("店铺查询表已重建，店铺数: {}，类型数: {}，耗时: {}ms",
+                shopTypes.size(), tables.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 用全部店铺替换所有类型的表
+     */
+    synchronized void load(List<Shop> shops) {
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        Map<Long, Table> built = new HashMap<>(byType.size());
+        Map<Long, Long> types = new HashMap<>(shops.size());
+        byType.forEach((typeId, list) -> {
+            built.put(typeId, Table.build(list));
+            for (Shop shop : list) {
+                types.put(shop.getId(), typeId);
+            }
+        });
+        tables.putAll(built);
+        tables.keySet().retainAll(built.keySet());
+        shopTypes.putAll(types);
+        shopTypes.keySet().retainAll(types.keySet());
+    }
+
+    /**
+     * 按数据库中的最新数据刷新一批店铺：找出这批店铺原来和现在所属的类型，每个类型重新查询一次并重建表
+     */
+    @Override
+    public synchronized void refresh(Collection<Long> shopIds) {
+        //1. 店铺现在所属的类型
+        List<Shop> changed = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id").in("id", shopIds));
+        Set<Long> typeIds = new HashSet<>();
+        for (Shop shop : changed) {
+            if (shop.getTypeId() != null) {
+                typeIds.add(shop.getTypeId());
+            }
+        }
+        //2. 店铺原来所属的类型
+        for (Long shopId : shopIds) {
+            Long oldType = shopTypes.remove(shopId);
+            if (oldType != null) {
+                typeIds.add(oldType);
+            }
+        }
+        if (typeIds.isEmpty()) {
+            return;
+        }
+        //3. 重新查询受影响的类型，重建表
+        Map<Long, List<Shop>> byType = shopMapper.selectList(new QueryWrapper<Shop>().select(COLUMNS).in("type_id", typeIds))
+                .stream()
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        for (Long typeId : typeIds) {
+            List<Shop> list = byType.get(typeId);
+            if (list == null) {
+                tables.remove(typeId);
+                continue;
+            }
+            tables.put(typeId, Table.build(list));
+            for (Shop shop : list) {
+                shopTypes.put(shop.getId(), typeId);
+            }
+        }
+    }
+
+    /**
+     * 执行查询
+     * @param x, y 用户坐标，按距离排序或筛选时必须传入，其他情况下传入时返回距离
+     * @return 店铺id -> 距离（米，没有坐标时为null），按查询的排序方式排序的一页
+     */
+    public LinkedHashMap<Long, Double> query(Long typeId, Double x, Double y, ShopQuery query, int offset, int count) {
+        LinkedHashMap<Long, Double> result = new LinkedHashMap<>();
+        Table table = tables.get(typeId);
+        if (table == null || table.size == 0) {
+            return result;
+        }
+        Filter filter = new Filter(table, query);
+        if (query.getSortField() == null) {
+            queryByDistance(table, filter, x, y, query, offset, count, result);
+        } else {
+            queryByColumn(table, filter, x, y, query, offset, count, result);
+        }
+        return result;
+    }
+
+    /**
+     * 按距离排序：从中心格子一圈一圈向外扫描
+     */
+    private void queryByDistance(Table table, Filter filter, double x, double y, ShopQuery query,
+                                 int offset, int count, LinkedHashMap<Long, Double> result) {
+        if (table.maxRow < table.minRow) {
+            // 该类型没有带坐标的店铺
+            return;
+        }
+        int limit = offset + count;
+        // 堆顶为目前第 limit 近的店铺
+        PriorityQueue<Candidate> top = new PriorityQueue<>(limit + 1, BY_DISTANCE.reversed());
+        double maxDistance = query.getMaxDistance();
+        long centerRow = row(y);
+        long centerCol = col(x);
+        //1. 扫描到覆盖整张表为止
+        long maxRing = Math.max(Math.max(centerRow - table.minRow, table.maxRow - centerRow),
+                Math.max(centerCol - table.minCol, table.maxCol - centerCol));
+        double cellMeters = minCellMeters(y, maxDistance);
+        for (long ring = 0; ring <= maxRing; ring++) {
+            //2. 这一圈的格子与用户之间至少隔着 ring - 1 个格子，超过筛选半径或第 limit 近的距离时停止
+            double nearest = Math.max(0, ring - 1) * cellMeters;
+            if (nearest > maxDistance || (top.size() >= limit && nearest > top.peek().distance)) {
+                break;
+            }
+            //3. 上下两行扫描整行，中间的行只扫描两端的格子
+            for (long row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row == centerRow - ring || row == centerRow + ring) {
+                    scanCells(table, filter, x, y, query, row, centerCol - ring, centerCol + ring, limit, top);
+                } else {
+                    scanCells(table, filter, x, y, query, row, centerCol - ring, centerCol - ring, limit, top);
+                    scanCells(table, filter, x, y, query, row, centerCol + ring, centerCol + ring, limit, top);
+                }
+            }
+        }
+        //4. 按距离排序后跳过 offset 个
+        List<Candidate> sorted = new ArrayList<>(top);
+        sorted.sort(BY_DISTANCE);
+        for (int i = offset; i < sorted.size(); i++) {
+            result.put(sorted.get(i).shopId, sorted.get(i).distance);
+        }
+    }
+
+    private void scanCells(Table table, Filter filter, double x, double y, ShopQuery query,
+                           long row, long colFrom, long colTo, int limit, PriorityQueue<Candidate> top) {
+        if (row < table.minRow || row > table.maxRow || colTo < table.minCol || colFrom > table.maxCol) {
+            return;
+        }
+        int from = lowerBound(table.cells, row << 32 | Math.max(colFrom, 0));
+        int to = lowerBound(table.cells, row << 32 | (colTo + 1));
+        for (int doc = from; doc < to; doc++) {
+            if (!filter.test(doc)) {
+                continue;
+            }
+            double distance = round(distance(x, y, table.xs[doc], table.ys[doc]));
+            if (!query.isWithinDistance(distance)) {
+                continue;
+            }
+            top.offer(new Candidate(table.ids[doc], distance));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+    }
+
+    /**
+     * 按数值列排序：按列的有序行号依次判断，凑满一页即停止
+     */
+    private void queryByColumn(Table table, Filter filter, Double x, Double y, ShopQuery query,
+                               int offset, int count, LinkedHashMap<Long, Double> result) {
+        int column = query.getSortField().ordinal();
+        int[] order = table.orders[column];
+        int nonNull = table.nonNullCounts[column];
+        boolean withDistance = x != null && y != null;
+        int matched = 0;
+        for (int i = 0; i < table.size && result.size() < count; i++) {
+            // 升序时顺序扫描；降序时倒序扫描非空值，空值始终排在最后
+            int doc = query.isAscending() ? order[i] : (i < nonNull ? order[nonNull - 1 - i] : order[i]);
+            if (!filter.test(doc)) {
+                continue;
+            }
+            Double distance = null;
+            if (withDistance) {
+                if (Double.isNaN(table.xs[doc])) {
+                    continue;
+                }
+                distance = round(distance(x, y, table.xs[doc], table.ys[doc]));
+                if (!query.isWithinDistance(distance)) {
+                    continue;
+                }
+            }
+            if (matched++ >= offset) {
+                result.put(table.ids[doc], distance);
+            }
+        }
+    }
+
+    private static double minCellMeters(double y, double maxDistance) {
+        // 经度方向的格子宽度按扫描范围内纬度最高处计算，并留出余量，保证是距离的下界
+        double cellLat = Math.toRadians(CELL_DEGREES) * EARTH_RADIUS;
+        double farthestLat = Math.min(89.0, Math.abs(y) + Math.toDegrees(maxDistance / EARTH_RADIUS) + CELL_DEGREES);
+        double cellLon = cellLat * Math.cos(Math.toRadians(farthestLat));
+        return Math.min(cellLat, cellLon) * 0.99;
+    }
+
+    /**
+     * 营业时间，例如 10:00-22:00、11:00-13:50,17:00-20:50、11:30-03:00（跨天）
+     * @return 开始、结束分钟依次排列，无法解析时返回空数组
+     */
+    private static int[] parseOpenHours(String openHours) {
+        if (openHours == null || openHours.trim().isEmpty()) {
+            return new int[0];
+        }
+        String[] ranges = openHours.split("[,，]");
+        int[] minutes = new int[ranges.length * 2];
+        try {
+            for (int i = 0; i < ranges.length; i++) {
+                String[] parts = ranges[i].trim().split("-");
+                minutes[i * 2] = parseMinute(parts[0]);
+                minutes[i * 2 + 1] = parseMinute(parts[1]);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析营业时间: {}", openHours);
+            return new int[0];
+        }
+        return minutes;
+    }
+
+    private static int parseMinute(String time) {
+        String[] parts = time.trim().split(":");
+        return Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+    }
+
+    private static final class Candidate {
+        private final long shopId;
+        private final double distance;
+
+        private Candidate(long shopId, double distance) {
+            this.shopId = shopId;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * 绑定到某张表的筛选条件，商圈先换成表中的编码
+     */
+    private static final class Filter {
+        private final Table table;
+        private final List<ShopQuery.NumberCondition> numberConditions;
+        // 商圈必须等于的编码，-1 不限，-2 表中不存在该商圈
+        private final int areaEquals;
+        private final int[] areaNotEquals;
+        private final int openMinute;
+
+        private Filter(Table table, ShopQuery query) {
+            this.table = table;
+            this.numberConditions = query.getNumberConditions();
+            if (query.getAreaEquals() == null) {
+                this.areaEquals = -1;
+            } else {
+                this.areaEquals = table.areaCodes.getOrDefault(query.getAreaEquals(), -2);
+            }
+            this.areaNotEquals = query.getAreaNotEquals().stream()
+                    .mapToInt(area -> table.areaCodes.getOrDefault(area, -2))
+                    .toArray();
+            this.openMinute = query.getOpenMinute();
+        }
+
+        private boolean test(int doc) {
+            //1. 数值条件，空值不满足
+            for (ShopQuery.NumberCondition condition : numberConditions) {
+                long value = table.numbers[condition.getField().ordinal()][doc];
+                if (value == NULL || !condition.test(value)) {
+                    return false;
+                }
+            }
+            //2. 商圈
+            if (areaEquals != -1 && table.areas[doc] != areaEquals) {
+                return false;
+            }
+            for (int area : areaNotEquals) {
+                if (table.areas[doc] == area) {
+                    return false;
+                }
+            }
+            //3. 营业时间
+            return openMinute < 0 || table.isOpen(doc, openMinute);
+        }
+    }
+
+    /**
+     * 一个店铺类型的列式表，行按格子编号、店铺id排序；没有坐标的店铺格子编号为 Long.MAX_VALUE，排在最后
+     */
+    private static final class Table {
+        private int size;
+        private long[] ids;
+        private double[] xs;
+        private double[] ys;
+        private long[] cells;
+        private long minRow = Long.MAX_VALUE;
+        private long maxRow = Long.MIN_VALUE;
+        private long minCol = Long.MAX_VALUE;
+        private long maxCol = Long.MIN_VALUE;
+        // 数值列，下标为 ShopQuery.NumberField 的 ordinal
+        private long[][] numbers;
+        // 每个数值列按 (值, 店铺id) 升序的行号，空值在最后
+        private int[][] orders;
+        private int[] nonNullCounts;
+        // 商圈编码
+        private int[] areas;
+        private Map<String, Integer> areaCodes;
+        // 营业时间：第 i 行的区间为 openMinutes[openOffsets[i] .. openOffsets[i + 1])，两个数一组
+        private int[] openOffsets;
+        private int[] openMinutes;
+
+        private static Table build(Collection<Shop> shops) {
+            //1. 按格子编号、店铺id排序
+            List<Shop> list = new ArrayList<>(shops);
+            list.sort(Comparator.comparingLong(Table::cellOf).thenComparingLong(Shop::getId));
+            Table table = new Table();
+            int n = list.size();
+            table.size = n;
+            table.ids = new long[n];
+            table.xs = new double[n];
+            table.ys = new double[n];
+            table.cells = new long[n];
+            table.numbers = new long[ShopQuery.NumberField.values().length][n];
+            table.areas = new int[n];
+            table.areaCodes = new HashMap<>();
+            table.openOffsets = new int[n + 1];
+            List<int[]> openHours = new ArrayList<>(n);
+            int openTotal = 0;
+            //2. 按列写入
+            for (int i = 0; i < n; i++) {
+                Shop shop = list.get(i);
+                table.ids[i] = shop.getId();
+                boolean located = shop.getX() != null && shop.getY() != null;
+                table.xs[i] = located ? shop.getX() : Double.NaN;
+                table.ys[i] = located ? shop.getY() : Double.NaN;
+                table.cells[i] = cellOf(shop);
+                if (located) {
+                    long row = row(shop.getY());
+                    long col = col(shop.getX());
+                    table.minRow = Math.min(table.minRow, row);
+                    table.maxRow = Math.max(table.maxRow, row);
+                    table.minCol = Math.min(table.minCol, col);
+                    table.maxCol = Math.max(table.maxCol, col);
+                }
+                table.numbers[ShopQuery.NumberField.SCORE.ordinal()][i] = shop.getScore() == null ? NULL : shop.getScore();
+                table.numbers[ShopQuery.NumberField.AVG_PRICE.ordinal()][i] = shop.getAvgPrice() == null ? NULL : shop.getAvgPrice();
+                table.numbers[ShopQuery.NumberField.SOLD.ordinal()][i] = shop.getSold() == null ? NULL : shop.getSold();
+                table.numbers[ShopQuery.NumberField.COMMENTS.ordinal()][i] = shop.getComments() == null ? NULL : shop.getComments();
+                String area = shop.getArea() == null ? "" : shop.getArea();
+                table.areas[i] = table.areaCodes.computeIfAbsent(area, k -> table.areaCodes.size());
+                int[] minutes = parseOpenHours(shop.getOpenHours());
+                openHours.add(minutes);
+                table.openOffsets[i] = openTotal;
+                openTotal += minutes.length;
+            }
+            table.openOffsets[n] = openTotal;
+            table.openMinutes = new int[openTotal];
+            for (int i = 0; i < n; i++) {
+                int[] minutes = openHours.get(i);
+                System.arraycopy(minutes, 0, table.openMinutes, table.openOffsets[i], minutes.length);
+            }
+            //3. 每个数值列的有序行号
+            int columns = table.numbers.length;
+            table.orders = new int[columns][];
+            table.nonNullCounts = new int[columns];
+            for (int c = 0; c < columns; c++) {
+                long[] values = table.numbers[c];
+                Integer[] order = new Integer[n];
+                int nonNull = 0;
+                for (int i = 0; i < n; i++) {
+                    order[i] = i;
+                    if (values[i] != NULL) {
+                        nonNull++;
+                    }
+                }
+                long[] ids = table.ids;
+                Arrays.sort(order, (a, b) -> {
+                    boolean nullA = values[a] == NULL;
+                    boolean nullB = values[b] == NULL;
+                    if (nullA != nullB) {
+                        return nullA ? 1 : -1;
+                    }
+                    return values[a] != values[b] ? Long.compare(values[a], values[b]) : Long.compare(ids[a], ids[b]);
+                });
+                table.orders[c] = Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+                table.nonNullCounts[c] = nonNull;
+            }
+            return table;
+        }
+
+        private static long cellOf(Shop shop) {
+            if (shop.getX() == null || shop.getY() == null) {
+                return Long.MAX_VALUE;
+            }
+            return GeoUtils.cellOf(shop.getX(), shop.getY());
+        }
+
+        /**
+         * 该分钟是否在营业时间内，结束时间小于开始时间的区间跨天
+         */
+        private boolean isOpen(int doc, int minute) {
+            for (int i = openOffsets[doc]; i < openOffsets[doc + 1]; i += 2) {
+                int from = openMinutes[i];
+                int to = openMinutes[i + 1];
+                boolean open = from <= to ? minute >= from && minute < to : minute >= from || minute < to;
+                if (open) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
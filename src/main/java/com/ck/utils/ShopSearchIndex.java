@@ -0,0 +1,435 @@
+package com.ck.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ck.entity.Shop;
+import com.ck.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 店铺名称和商圈的搜索索引，代替 like '%name%' 全表扫描
+ * 1. 文本去掉空白和标点、转小写后切成单字和相邻两字（bigram），中文按字切分，不需要分词；
+ *    店铺名称和商圈各一个倒排索引，gram -> 按文档号升序的 int 数组
+ * 2. 查询词切成 bigram（只有一个字时用单字），命中的 gram 数达到 min-match 比例的店铺为候选，按得分排序：
+ *    名称命中比例 + 0.5 * 商圈命中比例，名称包含查询词 +1，名称以查询词开头 +0.5，商圈包含查询词 +0.3，
+ *    评分加 0 ~ 0.2，传入坐标时按距离减 0 ~ 0.3（5公里以外减满）
+ * 3. 按 (得分 降序, 店铺id 升序) 用游标分页，得分保留4位小数
+ * 4. 索引不可变，店铺变化时复制出新的索引再替换，查询不加锁：旧文档从倒排表中删除，新数据追加为新的文档号，
+ *    文档号递增，倒排表追加后仍然有序；删除留下的空位在定期全量重建时回收
+ * 5. 由 ShopIndexLoader 加载，店铺变化按批刷新，一批变化的店铺一次查询、一次复制，复制索引的开销由一批变化分摊
+ * 6. 查询时只为命中的文档计数，开销与倒排表的长度成正比，与店铺总数无关
+ */
+@Slf4j
+@Component
+public class ShopSearchIndex implements ShopIndex {
+
+    // 距离超过该值时扣满分
+    private static final double DISTANCE_LIMIT = 5000;
+
+    // 得分降序、店铺id升序
+    private static final Comparator<Hit> HIT_ORDER =
+            Comparator.comparingDouble((Hit hit) -> -hit.score).thenComparingLong(hit -> hit.shopId);
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${shop.search.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 命中的gram数至少达到查询gram数的该比例，越小越模糊
+     */
+    @Value("${shop.search.min-match:0.5}")
+    private double minMatch;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从数据库全量重建，回收删除留下的文档号
+     */
+    @Override
+    public synchronized void reload() {
+        long start = System.currentTimeMillis();
+        List<Shop> shops = shopMapper.selectList(
+                new QueryWrapper<Shop>().select("id", "name", "area", "x", "y", "score").orderByAsc("id"));
+        Snapshot next = Snapshot.EMPTY.copy(shops.size());
+        for (Shop shop : shops) {
+            next.append(shop);
+        }
+        next.freeze();
+        snapshot = next;
+        log.info("店铺搜索索引已重建，店铺数: {}，名称gram数: {}，商圈gram数: {}，耗时: {}ms",
+                shops.size(), next.namePostings.size(), next.areaPostings.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按数据库中的最新数据刷新一批店铺，店铺不存在时删除，整批只复制一次索引
+     */
+    @Override
+    public synchronized void refresh(Collection<Long> shopIds) {
+        List<Shop> shops = shopMapper.selectList(
+                new QueryWrapper<Shop>().select("id", "name", "area", "x", "y", "score").in("id", shopIds));
+        Snapshot next = snapshot.copy(shops.size());
+        for (Long shopId : shopIds) {
+            next.remove(shopId);
+        }
+        for (Shop shop : shops) {
+            next.append(shop);
+        }
+        next.freeze();
+        snapshot = next;
+    }
+
+    /**
+     * 搜索店铺
+     * @param x         用户经度，为null时不按距离排序
+     * @param y         用户纬度
+     * @param lastScore 上一页最后一个店铺的得分，第一页为null
+     * @param lastId    上一页最后一个店铺的id
+     * @return 按得分降序、店铺id升序的一页命中结果
+     */
+    public List<Hit> search(String keyword, Double x, Double y, Double lastScore, Long lastId, int offset, int count) {
+        Snapshot index = snapshot;
+        String query = normalize(keyword);
+        if (query.isEmpty() || index.size == 0) {
+            return new ArrayList<>();
+        }
+        //1. 统计每个文档在名称、商圈中命中的gram数，只为命中的文档计数
+        Set<String> grams = queryGrams(query);
+        long postings = 0;
+        for (String gram : grams) {
+            postings += index.namePostings.getOrDefault(gram, Snapshot.NO_DOCS).length
+                    + index.areaPostings.getOrDefault(gram, Snapshot.NO_DOCS).length;
+        }
+        DocCounter counter = new DocCounter((int) Math.min(postings, index.size));
+        for (String gram : grams) {
+            for (int doc : index.namePostings.getOrDefault(gram, Snapshot.NO_DOCS)) {
+                counter.nameCounts[counter.slot(doc)]++;
+            }
+            for (int doc : index.areaPostings.getOrDefault(gram, Snapshot.NO_DOCS)) {
+                counter.areaCounts[counter.slot(doc)]++;
+            }
+        }
+        //2. 命中比例达到 min-match 的文档计算得分，跳过游标之前的文档，用大小为 offset + count 的堆保留排在最前的文档
+        int required = Math.max(1, (int) Math.ceil(grams.size() * minMatch));
+        int limit = offset + count;
+        long afterId = lastId == null ? Long.MIN_VALUE : lastId;
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, HIT_ORDER.reversed());
+        for (int i = 0; i < counter.size; i++) {
+            int slot = counter.slots[i];
+            int doc = counter.docs[slot] - 1;
+            int nameCount = counter.nameCounts[slot];
+            int areaCount = counter.areaCounts[slot];
+            if (Math.max(nameCount, areaCount) < required) {
+                continue;
+            }
+            double distance = x == null || y == null || Double.isNaN(index.xs[doc])
+                    ? -1 : GeoUtils.distance(x, y, index.xs[doc], index.ys[doc]);
+            double score = score(index, doc, query, grams.size(), nameCount, areaCount, distance);
+            long shopId = index.shopIds[doc];
+            if (lastScore != null && (score > lastScore || (score == lastScore && shopId <= afterId))) {
+                continue;
+            }
+            top.offer(new Hit(shopId, score, distance < 0 ? null : GeoUtils.round(distance)));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        //3. 按得分降序、店铺id升序排序，跳过 offset 个后返回
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(HIT_ORDER);
+        return offset >= hits.size() ? new ArrayList<>() : new ArrayList<>(hits.subList(offset, hits.size()));
+    }
+
+    private static double score(Snapshot index, int doc, String query, int gramCount,
+                                int nameCount, int areaCount, double distance) {
+        String name = index.names[doc];
+        String area = index.areas[doc];
+        double score = (double) nameCount / gramCount + 0.5 * areaCount / gramCount;
+        if (name.contains(query)) {
+            score += name.startsWith(query) ? 1.5 : 1;
+        }
+        if (area.contains(query)) {
+            score += 0.3;
+        }
+        // 评分为 0 ~ 50
+        score += 0.2 * Math.min(Math.max(index.ratings[doc], 0), 50) / 50;
+        if (distance >= 0) {
+            score -= 0.3 * Math.min(distance, DISTANCE_LIMIT) / DISTANCE_LIMIT;
+        }
+        return Math.round(score * 10000) / 10000.0;
+    }
+
+    /**
+     * 去掉空白和标点，转小写
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        text.codePoints()
+                .filter(Character::isLetterOrDigit)
+                .map(Character::toLowerCase)
+                .forEach(sb::appendCodePoint);
+        return sb.toString();
+    }
+
+    /**
+     * 文档的gram：所有单字和相邻两字
+     */
+    private static Set<String> documentGrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        int[] cps = text.codePoints().toArray();
+        for (int i = 0; i < cps.length; i++) {
+            grams.add(new String(cps, i, 1));
+            if (i + 1 < cps.length) {
+                grams.add(new String(cps, i, 2));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 查询的gram：相邻两字，只有一个字时为该字
+     */
+    private static Set<String> queryGrams(String query) {
+        int[] cps = query.codePoints().toArray();
+        Set<String> grams = new LinkedHashSet<>();
+        if (cps.length == 1) {
+            grams.add(query);
+            return grams;
+        }
+        for (int i = 0; i + 1 < cps.length; i++) {
+            grams.add(new String(cps, i, 2));
+        }
+        return grams;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    public static final class Hit {
+        private final long shopId;
+        private final double score;
+        private final Double distance;
+
+        private Hit(long shopId, double score, Double distance) {
+            this.shopId = shopId;
+            this.score = score;
+            this.distance = distance;
+        }
+
+        public long getShopId() {
+            return shopId;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * 距离（米），没有传入坐标或店铺没有坐标时为null
+         */
+        public Double getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * 索引的一个版本，文档号为数组下标；构建时可变，freeze 后不再修改
+     */
+    private static final class Snapshot {
+        private static final int[] NO_DOCS = new int[0];
+        private static final Snapshot EMPTY = new Snapshot();
+
+        private int size;
+        private long[] shopIds = new long[0];
+        private String[] names = new String[0];
+        private String[] areas = new String[0];
+        private double[] xs = new double[0];
+        private double[] ys = new double[0];
+        private int[] ratings = new int[0];
+        // 店铺id -> 文档号
+        private Map<Long, Integer> docs = new HashMap<>();
+        private Map<String, int[]> namePostings = new HashMap<>();
+        private Map<String, int[]> areaPostings = new HashMap<>();
+        // 构建时追加的倒排表，freeze 时合并
+        private Map<String, IntList> namePending = new HashMap<>();
+        private Map<String, IntList> areaPending = new HashMap<>();
+
+        /**
+         * 复制出可修改的新版本，倒排表在修改时才复制
+         * @param extra 预计追加的文档数
+         */
+        private Snapshot copy(int extra) {
+            Snapshot next = new Snapshot();
+            next.size = size;
+            int capacity = size + extra;
+            next.shopIds = Arrays.copyOf(shopIds, capacity);
+            next.names = Arrays.copyOf(names, capacity);
+            next.areas = Arrays.copyOf(areas, capacity);
+            next.xs = Arrays.copyOf(xs, capacity);
+            next.ys = Arrays.copyOf(ys, capacity);
+            next.ratings = Arrays.copyOf(ratings, capacity);
+            next.docs = new HashMap<>(docs);
+            next.namePostings = new HashMap<>(namePostings);
+            next.areaPostings = new HashMap<>(areaPostings);
+            return next;
+        }
+
+        private void append(Shop shop) {
+            if (size == shopIds.length) {
+                int capacity = Math.max(16, size * 2);
+                shopIds = Arrays.copyOf(shopIds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                areas = Arrays.copyOf(areas, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+            }
+            int doc = size++;
+            shopIds[doc] = shop.getId();
+            names[doc] = normalize(shop.getName());
+            areas[doc] = normalize(shop.getArea());
+            xs[doc] = shop.getX() == null ? Double.NaN : shop.getX();
+            ys[doc] = shop.getY() == null ? Double.NaN : shop.getY();
+            ratings[doc] = shop.getScore() == null ? 0 : shop.getScore();
+            docs.put(shop.getId(), doc);
+            for (String gram : documentGrams(names[doc])) {
+                namePending.computeIfAbsent(gram, k -> new IntList()).add(doc);
+            }
+            for (String gram : documentGrams(areas[doc])) {
+                areaPending.computeIfAbsent(gram, k -> new IntList()).add(doc);
+            }
+        }
+
+        /**
+         * 从倒排表中删除店铺的文档，文档号留空，名称和商圈置空
+         */
+        private void remove(Long shopId) {
+            Integer doc = docs.remove(shopId);
+            if (doc == null) {
+                return;
+            }
+            for (String gram : documentGrams(names[doc])) {
+                removeDoc(namePostings, gram, doc);
+            }
+            for (String gram : documentGrams(areas[doc])) {
+                removeDoc(areaPostings, gram, doc);
+            }
+            names[doc] = "";
+            areas[doc] = "";
+        }
+
+        private static void removeDoc(Map<String, int[]> postings, String gram, int doc) {
+            int[] docs = postings.get(gram);
+            if (docs == null) {
+                return;
+            }
+            int index = Arrays.binarySearch(docs, doc);
+            if (index < 0) {
+                return;
+            }
+            if (docs.length == 1) {
+                postings.remove(gram);
+                return;
+            }
+            int[] next = new int[docs.length - 1];
+            System.arraycopy(docs, 0, next, 0, index);
+            System.arraycopy(docs, index + 1, next, index, next.length - index);
+            postings.put(gram, next);
+        }
+
+        /**
+         * 把追加的文档号合并到倒排表，新文档号大于已有的文档号，直接拼接在末尾
+         */
+        private void freeze() {
+            merge(namePostings, namePending);
+            merge(areaPostings, areaPending);
+            namePending = null;
+            areaPending = null;
+        }
+
+        private static void merge(Map<String, int[]> postings, Map<String, IntList> pending) {
+            pending.forEach((gram, list) -> {
+                int[] docs = postings.getOrDefault(gram, NO_DOCS);
+                int[] next = Arrays.copyOf(docs, docs.length + list.size);
+                System.arraycopy(list.values, 0, next, docs.length, list.size);
+                postings.put(gram, next);
+            });
+        }
+    }
+
+    /**
+     * 文档号 -> (名称命中数, 商圈命中数)，开放寻址，容量按命中的文档数上限分配，不扩容
+     */
+    private static final class DocCounter {
+        // 文档号 + 1，0 表示空位
+        private final int[] docs;
+        private final int[] nameCounts;
+        private final int[] areaCounts;
+        // 按首次命中顺序记录已使用的位置
+        private final int[] slots;
+        private final int mask;
+        private int size;
+
+        /**
+         * @param maxDocs 命中的文档数上限
+         */
+        private DocCounter(int maxDocs) {
+            int capacity = Integer.highestOneBit(Math.max(maxDocs, 8) * 2 - 1) << 1;
+            docs = new int[capacity];
+            nameCounts = new int[capacity];
+            areaCounts = new int[capacity];
+            slots = new int[Math.max(maxDocs, 8)];
+            mask = capacity - 1;
+        }
+
+        /**
+         * 文档所在的位置，第一次命中时分配
+         */
+        private int slot(int doc) {
+            int h = doc * 0x9E3779B9;
+            int slot = (h ^ h >>> 16) & mask;
+            while (docs[slot] != 0) {
+                if (docs[slot] == doc + 1) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            docs[slot] = doc + 1;
+            slots[size++] = slot;
+            return slot;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            values = grow(values, size);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.ck.utils.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 读取 BinaryWriter 写入的数据，读取顺序必须和写入顺序一致
+ */
+public class BinaryReader {
+
+    private final byte[] buf;
+    private int position;
+    private final int limit;
+
+    public BinaryReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public BinaryReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public int readByte() {
+        if (position >= limit) {
+            throw new IllegalStateException("缓存数据格式错误：数据不完整");
+        }
+        return buf[position++] & 0xFF;
+    }
+
+    public long readFixedLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("缓存数据格式错误：变长整数过长");
+    }
+
+    public Long readLong() {
+        if (readByte() == 0) {
+            return null;
+        }
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public Integer readInt() {
+        Long value = readLong();
+        return value == null ? null : value.intValue();
+    }
+
+    public Double readDouble() {
+        return readByte() == 0 ? null : Double.longBitsToDouble(readFixedLong());
+    }
+
+    public Boolean readBoolean() {
+        int value = readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    public String readString() {
+        int length = (int) readVarLong() - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > remaining()) {
+            throw new IllegalStateException("缓存数据格式错误：数据不完整");
+        }
+        String value = new String(buf, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * 把剩余的数据按 utf-8 读取为字符串
+     */
+    public String readRemainingString() {
+        String value = new String(buf, position, remaining(), StandardCharsets.UTF_8);
+        position = limit;
+        return value;
+    }
+
+    public LocalDateTime readTime() {
+        if (readByte() == 0) {
+            return null;
+        }
+        long second = readVarLong();
+        second = (second >>> 1) ^ -(second & 1);
+        return LocalDateTime.ofEpochSecond(second, (int) readVarLong(), ZoneOffset.UTC);
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+}
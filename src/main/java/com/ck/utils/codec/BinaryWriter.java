@@ -0,0 +1,113 @@
+package com.ck.utils.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 写入紧凑的二进制数据，整数使用变长编码，可为null的字段前面写一个标记字节
+ */
+public class BinaryWriter {
+
+    private byte[] buf;
+    private int size;
+
+    public BinaryWriter(int initialCapacity) {
+        this.buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        buf[size++] = (byte) value;
+    }
+
+    public void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * 固定8字节，大端序
+     */
+    public void writeFixedLong(long value) {
+        ensure(8);
+        for (int i = 7; i >= 0; i--) {
+            buf[size++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * 无符号变长编码，每个字节7位
+     */
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+    }
+
+    public void writeLong(Long value) {
+        if (writeNullTag(value)) {
+            // zigzag编码，绝对值小的负数也只占一个字节
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+    }
+
+    public void writeInt(Integer value) {
+        writeLong(value == null ? null : value.longValue());
+    }
+
+    public void writeDouble(Double value) {
+        if (writeNullTag(value)) {
+            writeFixedLong(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    public void writeBoolean(Boolean value) {
+        writeByte(value == null ? 0 : value ? 2 : 1);
+    }
+
+    /**
+     * 先写 utf-8 字节长度 + 1，0 表示null
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        writeBytes(bytes);
+    }
+
+    public void writeTime(LocalDateTime value) {
+        if (writeNullTag(value)) {
+            long second = value.toEpochSecond(ZoneOffset.UTC);
+            writeVarLong((second << 1) ^ (second >> 63));
+            writeVarLong(value.getNano());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    private boolean writeNullTag(Object value) {
+        writeByte(value == null ? 0 : 1);
+        return value != null;
+    }
+
+    private void ensure(int length) {
+        if (size + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + length));
+        }
+    }
+}
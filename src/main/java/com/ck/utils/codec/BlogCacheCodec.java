@@ -0,0 +1,46 @@
+package com.ck.utils.codec;
+
+import com.ck.entity.Blog;
+import org.springframework.stereotype.Component;
+
+/**
+ * 博客的二进制格式，作者信息和是否点赞跟随请求查询，不写入缓存
+ */
+@Component
+public class BlogCacheCodec implements CacheCodec<Blog> {
+
+    @Override
+    public Class<Blog> type() {
+        return Blog.class;
+    }
+
+    @Override
+    public void write(Blog blog, BinaryWriter out) {
+        out.writeLong(blog.getId());
+        out.writeLong(blog.getShopId());
+        out.writeLong(blog.getUserId());
+        out.writeString(blog.getTitle());
+        out.writeString(blog.getImages());
+        out.writeString(blog.getContent());
+        out.writeInt(blog.getLiked());
+        out.writeInt(blog.getComments());
+        out.writeTime(blog.getCreateTime());
+        out.writeTime(blog.getUpdateTime());
+    }
+
+    @Override
+    public Blog read(BinaryReader in) {
+        Blog blog = new Blog();
+        blog.setId(in.readLong());
+        blog.setShopId(in.readLong());
+        blog.setUserId(in.readLong());
+        blog.setTitle(in.readString());
+        blog.setImages(in.readString());
+        blog.setContent(in.readString());
+        blog.setLiked(in.readInt());
+        blog.setComments(in.readInt());
+        blog.setCreateTime(in.readTime());
+        blog.setUpdateTime(in.readTime());
+        return blog;
+    }
+}
@@ -0,0 +1,24 @@
+package com.ck.utils.codec;
+
+/**
+ * 缓存数据的二进制编解码器，为某个类型提供按字段顺序排列的紧凑格式，不写字段名
+ * 注册为spring组件后由 CacheValueSerializer 自动发现；调整字段时需要增加 version()，旧版本的数据按未命中处理
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * 编解码的类型
+     */
+    Class<T> type();
+
+    /**
+     * 字段格式的版本号
+     */
+    default int version() {
+        return 1;
+    }
+
+    void write(T value, BinaryWriter out);
+
+    T read(BinaryReader in);
+}
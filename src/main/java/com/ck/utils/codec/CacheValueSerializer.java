@@ -0,0 +1,308 @@
+package com.ck.utils.codec;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.ck.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存数据的序列化
+ * 1. 格式：魔数(1) + 标记(1) + 字段版本(1) + [过期时间，毫秒时间戳(8)] + [重建耗时，毫秒(变长)] + [压缩前长度(变长)] + 数据
+ * 2. 注册了 CacheCodec 的类型按字段写二进制，其余类型写json
+ * 3. 数据超过阈值时用 Deflater(BEST_SPEED) 压缩，压缩后没有变小则不压缩
+ * 4. 不以魔数开头的数据按原来的json格式（逻辑过期为 RedisData）解析，兼容已有缓存和未升级的节点
+ */
+@Slf4j
+@Component
+public class CacheValueSerializer {
+
+    private static final byte MAGIC = (byte) 0xCB;
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_COMPRESSED = 1 << 1;
+    private static final int FLAG_JSON = 1 << 2;
+    private static final int FLAG_LIST = 1 << 3;
+    private static final int FLAG_COST = 1 << 4;
+
+    @Resource
+    private List<CacheCodec<?>> cacheCodecs;
+
+    /**
+     * 关闭后写入原来的json格式，用于未升级的节点还在读取缓存时
+     */
+    @Value("${cache.codec.binary-enabled:true}")
+    private boolean binaryEnabled;
+
+    /**
+     * 数据超过该字节数时压缩
+     */
+    @Value("${cache.codec.compress-threshold:1024}")
+    private int compressThreshold;
+
+    private final Map<Class<?>, CacheCodec<?>> codecs = new HashMap<>();
+
+    @PostConstruct
+    private void init() {
+        for (CacheCodec<?> codec : cacheCodecs) {
+            codecs.put(codec.type(), codec);
+        }
+        log.info("缓存二进制编解码器：{}", codecs.keySet());
+    }
+
+    /**
+     * 解码后的数据
+     */
+    public static class CachedValue<R> {
+        private final R value;
+        private final long expireAt;
+        private final long costMillis;
+
+        private CachedValue(R value, long expireAt, long costMillis) {
+            this.value = value;
+            this.expireAt = expireAt;
+            this.costMillis = costMillis;
+        }
+
+        public R getValue() {
+            return value;
+        }
+
+        /**
+         * 过期时间（毫秒时间戳），没有过期时间时为 Long.MAX_VALUE
+         */
+        public long getExpireAt() {
+            return expireAt;
+        }
+
+        /**
+         * 写入时查询数据库的耗时（毫秒），未知时为0
+         */
+        public long getCostMillis() {
+            return costMillis;
+        }
+    }
+
+    /**
+     * @param expireAt 逻辑过期时间（毫秒时间戳），小于等于0表示不带逻辑过期时间
+     */
+    public byte[] encode(Object value, long expireAt) {
+        return encode(value, expireAt, 0, true);
+    }
+
+    /**
+     * @param expireAt      过期时间（毫秒时间戳），小于等于0表示不带过期时间
+     * @param costMillis    查询数据库的耗时，用于提前刷新
+     * @param logicalExpire 过期时间是否为逻辑过期时间，写入原来的json格式时逻辑过期才包装为 RedisData
+     */
+    public byte[] encode(Object value, long expireAt, long costMillis, boolean logicalExpire) {
+        if (!binaryEnabled) {
+            return legacyEncode(value, logicalExpire ? expireAt : 0);
+        }
+        CacheCodec<Object> codec = codecOf(value.getClass());
+        BinaryWriter payload = new BinaryWriter(256);
+        if (codec == null) {
+            payload.writeBytes(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+            return frame(FLAG_JSON, 0, expireAt, costMillis, payload);
+        }
+        codec.write(value, payload);
+        return frame(0, codec.version(), expireAt, costMillis, payload);
+    }
+
+    /**
+     * 编码一组同类型的数据
+     */
+    public byte[] encodeList(List<?> list, Class<?> type) {
+        if (!binaryEnabled) {
+            return JSONUtil.toJsonStr(list).getBytes(StandardCharsets.UTF_8);
+        }
+        CacheCodec<Object> codec = codecOf(type);
+        BinaryWriter payload = new BinaryWriter(256);
+        if (codec == null) {
+            payload.writeBytes(JSONUtil.toJsonStr(list).getBytes(StandardCharsets.UTF_8));
+            return frame(FLAG_LIST | FLAG_JSON, 0, 0, 0, payload);
+        }
+        payload.writeVarLong(list.size());
+        for (Object value : list) {
+            codec.write(value, payload);
+        }
+        return frame(FLAG_LIST, codec.version(), 0, 0, payload);
+    }
+
+    /**
+     * @param logicalExpire 原来的json格式是否为 RedisData
+     * @return 解码后的数据，字段版本和当前不一致时返回null，调用方按未命中处理
+     */
+    public <R> CachedValue<R> decode(byte[] bytes, Class<R> type, boolean logicalExpire) {
+        if (bytes[0] != MAGIC) {
+            return legacyDecode(bytes, type, logicalExpire);
+        }
+        BinaryReader in = new BinaryReader(bytes);
+        in.readByte();
+        int flags = in.readByte();
+        int version = in.readByte();
+        long expireAt = (flags & FLAG_EXPIRE) != 0 ? in.readFixedLong() : Long.MAX_VALUE;
+        long costMillis = (flags & FLAG_COST) != 0 ? in.readVarLong() : 0;
+        in = unwrap(bytes, in, flags);
+        if ((flags & FLAG_JSON) != 0) {
+            return new CachedValue<>(JSONUtil.toBean(in.readRemainingString(), type), expireAt, costMillis);
+        }
+        CacheCodec<R> codec = codecOf(type);
+        if (codec == null || codec.version() != version) {
+            return null;
+        }
+        return new CachedValue<>(codec.read(in), expireAt, costMillis);
+    }
+
+    /**
+     * 解码一组同类型的数据，字段版本和当前不一致时返回null
+     */
+    public <R> List<R> decodeList(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return JSONUtil.parseArray(new String(bytes, StandardCharsets.UTF_8)).toList(type);
+        }
+        BinaryReader in = new BinaryReader(bytes);
+        in.readByte();
+        int flags = in.readByte();
+        int version = in.readByte();
+        in = unwrap(bytes, in, flags);
+        if ((flags & FLAG_JSON) != 0) {
+            return JSONUtil.parseArray(in.readRemainingString()).toList(type);
+        }
+        CacheCodec<R> codec = codecOf(type);
+        if (codec == null || codec.version() != version) {
+            return null;
+        }
+        int size = (int) in.readVarLong();
+        List<R> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(codec.read(in));
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> CacheCodec<R> codecOf(Class<?> type) {
+        return (CacheCodec<R>) codecs.get(type);
+    }
+
+    private byte[] frame(int flags, int version, long expireAt, long costMillis, BinaryWriter payload) {
+        byte[] body = payload.toByteArray();
+        int rawLength = body.length;
+        if (rawLength >= compressThreshold) {
+            byte[] compressed = compress(body);
+            if (compressed.length < rawLength) {
+                body = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        if (expireAt > 0) {
+            flags |= FLAG_EXPIRE;
+        }
+        if (costMillis > 0) {
+            flags |= FLAG_COST;
+        }
+        BinaryWriter out = new BinaryWriter(body.length + 24);
+        out.writeByte(MAGIC);
+        out.writeByte(flags);
+        out.writeByte(version);
+        if (expireAt > 0) {
+            out.writeFixedLong(expireAt);
+        }
+        if (costMillis > 0) {
+            out.writeVarLong(costMillis);
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            out.writeVarLong(rawLength);
+        }
+        out.writeBytes(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * 数据被压缩时返回解压后数据的reader
+     */
+    private static BinaryReader unwrap(byte[] bytes, BinaryReader in, int flags) {
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            return in;
+        }
+        int rawLength = (int) in.readVarLong();
+        return new BinaryReader(decompress(bytes, in.position(), in.remaining(), rawLength));
+    }
+
+    private static byte[] compress(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] bytes, int offset, int length, int rawLength) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, offset, length);
+            byte[] body = new byte[rawLength];
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(body, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new IllegalStateException("缓存数据格式错误：解压后长度不一致");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存数据格式错误：解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] legacyEncode(Object value, long expireAt) {
+        if (expireAt <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static <R> CachedValue<R> legacyDecode(byte[] bytes, Class<R> type, boolean logicalExpire) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if (!logicalExpire) {
+            return new CachedValue<>(JSONUtil.toBean(json, type), Long.MAX_VALUE, 0);
+        }
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new CachedValue<>(r, expireAt, 0);
+    }
+}
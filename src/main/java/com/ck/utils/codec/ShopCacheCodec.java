@@ -0,0 +1,56 @@
+package com.ck.utils.codec;
+
+import com.ck.entity.Shop;
+import org.springframework.stereotype.Component;
+
+/**
+ * 店铺的二进制格式，distance 是查询时计算的距离，不写入缓存
+ */
+@Component
+public class ShopCacheCodec implements CacheCodec<Shop> {
+
+    @Override
+    public Class<Shop> type() {
+        return Shop.class;
+    }
+
+    @Override
+    public void write(Shop shop, BinaryWriter out) {
+        out.writeLong(shop.getId());
+        out.writeString(shop.getName());
+        out.writeLong(shop.getTypeId());
+        out.writeString(shop.getImages());
+        out.writeString(shop.getArea());
+        out.writeString(shop.getAddress());
+        out.writeDouble(shop.getX());
+        out.writeDouble(shop.getY());
+        out.writeLong(shop.getAvgPrice());
+        out.writeInt(shop.getSold());
+        out.writeInt(shop.getComments());
+        out.writeInt(shop.getScore());
+        out.writeString(shop.getOpenHours());
+        out.writeTime(shop.getCreateTime());
+        out.writeTime(shop.getUpdateTime());
+    }
+
+    @Override
+    public Shop read(BinaryReader in) {
+        Shop shop = new Shop();
+        shop.setId(in.readLong());
+        shop.setName(in.readString());
+        shop.setTypeId(in.readLong());
+        shop.setImages(in.readString());
+        shop.setArea(in.readString());
+        shop.setAddress(in.readString());
+        shop.setX(in.readDouble());
+        shop.setY(in.readDouble());
+        shop.setAvgPrice(in.readLong());
+        shop.setSold(in.readInt());
+        shop.setComments(in.readInt());
+        shop.setScore(in.readInt());
+        shop.setOpenHours(in.readString());
+        shop.setCreateTime(in.readTime());
+        shop.setUpdateTime(in.readTime());
+        return shop;
+    }
+}
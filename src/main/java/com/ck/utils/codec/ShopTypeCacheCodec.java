@@ -0,0 +1,34 @@
+package com.ck.utils.codec;
+
+import com.ck.entity.ShopType;
+import org.springframework.stereotype.Component;
+
+/**
+ * 店铺类型的二进制格式，和json一样不包含创建、更新时间
+ */
+@Component
+public class ShopTypeCacheCodec implements CacheCodec<ShopType> {
+
+    @Override
+    public Class<ShopType> type() {
+        return ShopType.class;
+    }
+
+    @Override
+    public void write(ShopType shopType, BinaryWriter out) {
+        out.writeLong(shopType.getId());
+        out.writeString(shopType.getName());
+        out.writeString(shopType.getIcon());
+        out.writeInt(shopType.getSort());
+    }
+
+    @Override
+    public ShopType read(BinaryReader in) {
+        ShopType shopType = new ShopType();
+        shopType.setId(in.readLong());
+        shopType.setName(in.readString());
+        shopType.setIcon(in.readString());
+        shopType.setSort(in.readInt());
+        return shopType;
+    }
+}
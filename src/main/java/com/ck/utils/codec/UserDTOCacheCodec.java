@@ -0,0 +1,29 @@
+package com.ck.utils.codec;
+
+import com.ck.dto.UserDTO;
+import org.springframework.stereotype.Component;
+
+@Component
+public class UserDTOCacheCodec implements CacheCodec<UserDTO> {
+
+    @Override
+    public Class<UserDTO> type() {
+        return UserDTO.class;
+    }
+
+    @Override
+    public void write(UserDTO user, BinaryWriter out) {
+        out.writeLong(user.getId());
+        out.writeString(user.getNickName());
+        out.writeString(user.getIcon());
+    }
+
+    @Override
+    public UserDTO read(BinaryReader in) {
+        UserDTO user = new UserDTO();
+        user.setId(in.readLong());
+        user.setNickName(in.readString());
+        user.setIcon(in.readString());
+        return user;
+    }
+}
@@ -0,0 +1,78 @@
+---
+--- 按距离分页查询店铺GEO，在redis中完成分页，只返回一页数据
+--- 返回 {店铺id1, 距离1, 店铺id2, 距离2, ...}，距离单位为米，按距离、店铺id排序
+
+-- 1. 参数列表
+-- 1.1 中心点经纬度和半径（米）
+local x = ARGV[1]
+local y = ARGV[2]
+local radius = ARGV[3]
+-- 1.2 每页数量
+local count = tonumber(ARGV[4])
+-- 1.3 跳过的数量，按页码查询时使用
+local offset = tonumber(ARGV[5])
+-- 1.4 上一页最后一个店铺的距离和id，按游标查询时使用，小于0表示按页码查询
+local lastDist = tonumber(ARGV[6])
+local lastId = tonumber(ARGV[7])
+-- 1.5 前面的页已经返回的店铺数量，按游标查询时使用
+local seen = tonumber(ARGV[8])
+
+-- 2. 按页码查询，只查询到当前页为止
+if (lastDist < 0) then
+    local results = redis.call('GEOSEARCH', KEYS[1], 'FROMLONLAT', x, y, 'BYRADIUS', radius, 'm',
+            'ASC', 'COUNT', offset + count, 'WITHDIST')
+    local reply = {}
+    for i = offset + 1, #results do
+        reply[#reply + 1] = results[i][1]
+        reply[#reply + 1] = results[i][2]
+    end
+    return reply
+end
+
+-- 3. 按游标查询，取距离、id大于游标的店铺
+-- 3.1 游标之前有 seen 个店铺，查询离中心最近的 seen + count + 1 个，一次即可取到本页，
+--     多取的1个用于确认与本页最后一个距离相同的店铺已经全部取到
+-- 3.2 上一页之后有店铺加入到游标之前、或距离相同的店铺超出窗口时凑不满一页，窗口翻倍后重新查询
+local window = seen + count + 1
+local page
+while true do
+    local results = redis.call('GEOSEARCH', KEYS[1], 'FROMLONLAT', x, y, 'BYRADIUS', radius, 'm',
+            'ASC', 'COUNT', window, 'WITHDIST')
+    page = {}
+    local boundary = nil
+    -- 返回数量不足窗口大小，说明半径内的店铺已经全部查出
+    local complete = #results < window
+    for i = 1, #results do
+        local id = tonumber(results[i][1])
+        local dist = tonumber(results[i][2])
+        -- 3.2 凑满一页后，继续取与最后一个距离相同的店铺，保证距离相同时按id排序不会遗漏
+        if (boundary ~= nil and dist > boundary) then
+            complete = true
+            break
+        end
+        if (dist > lastDist or (dist == lastDist and id > lastId)) then
+            page[#page + 1] = { id, dist, results[i][1], results[i][2] }
+            if (#page == count) then
+                boundary = dist
+            end
+        end
+    end
+    if (complete) then
+        break
+    end
+    window = window * 2
+end
+
+-- 4. 按距离、id排序后返回一页
+table.sort(page, function(a, b)
+    if (a[2] ~= b[2]) then
+        return a[2] < b[2]
+    end
+    return a[1] < b[1]
+end)
+local reply = {}
+for i = 1, math.min(count, #page) do
+    reply[#reply + 1] = page[i][3]
+    reply[#reply + 1] = page[i][4]
+end
+return reply
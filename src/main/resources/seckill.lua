@@ -4,6 +4,9 @@
 --- DateTime: 2024/2/26 14:25
 ---
 
+-- 返回值 {结果码, 用户在该分片已购数量}
+-- 结果码：0 下单成功；1 该分片库存不足；2 超出限购数量；3 秒杀未开始；4 秒杀已结束
+
 -- 1. 参数列表
 -- 1.1.优惠券id
 local voucherId = ARGV[1]
@@ -11,29 +14,63 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3 订单id
 local orderId = ARGV[3]
+-- 1.4 用户在之前尝试过的分片中已购的数量
+local prevBought = tonumber(ARGV[4] or '0')
+-- 1.5 用户在bitmap桶中的偏移量
+local bitOffset = ARGV[5]
 
--- 2.数据key
+-- 2.数据key，由调用方按库存分片传入，同一分片的key在同一个slot
 -- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+local stockKey = KEYS[1]
+-- 2.2.订单key，hash结构，用户id -> 已购数量（限购多单时使用）
+local orderKey = KEYS[2]
+-- 2.3.秒杀信息key，hash结构，begin、end为秒级时间戳，limit为每人限购数量，tracker为购买记录的存储方式
+local voucherKey = KEYS[3]
+-- 2.4.购买用户bitmap的key，按用户id分桶（一人一单时使用）
+local bitmapKey = KEYS[4]
+-- 2.5.分片的订单stream
+local streamKey = KEYS[5]
+-- 2.6.记录分片用到的bitmap桶的set
+local bucketsKey = KEYS[6]
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2 库存不足，返回1
-    return 1
+-- 3.1 判断秒杀时间
+local info = redis.call('hmget', voucherKey, 'begin', 'end', 'limit', 'tracker')
+local now = tonumber(redis.call('time')[1])
+if(info[1] and now < tonumber(info[1])) then
+    return {3, 0}
+end
+if(info[2] and now > tonumber(info[2])) then
+    return {4, 0}
+end
+-- 3.2 判断用户是否超出限购数量（先判断用户，分片卖完后用户仍然能被识别为重复下单）
+local limit = tonumber(info[3] or '1')
+local bitmap = info[4] == 'bitmap'
+local bought
+if(bitmap) then
+    bought = redis.call('getbit', bitmapKey, bitOffset)
+else
+    bought = tonumber(redis.call('hget', orderKey, userId) or '0')
 end
--- 3.3 判断用户是否下过单
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.4 存在，说明用户重复下单
-    return 2
+if(prevBought + bought >= limit) then
+    return {2, bought}
+end
+-- 3.3.判断库存是否充足
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
+    -- 3.4 该分片库存不足，由调用方尝试相邻分片
+    return {1, bought}
 end
 
 -- 3.5 扣库存
 redis.call('incrby', stockKey, -1)
--- 3.6 下单(保存用户) sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.7 向stream.orders中添加消息 XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.6 下单(记录用户已购数量) setbit bitmapKey offset 1 / hincrby orderKey userId 1
+if(bitmap) then
+    redis.call('setbit', bitmapKey, bitOffset, 1)
+    redis.call('sadd', bucketsKey, bitmapKey)
+else
+    redis.call('hincrby', orderKey, userId, 1)
+end
+-- 3.7 向分片的订单stream中添加消息 XADD stream.orders:{voucherId:i} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
+return {0, bought + 1}
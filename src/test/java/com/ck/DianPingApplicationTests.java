@@ -1,10 +1,15 @@
 package com.ck;
 
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
 import com.ck.entity.Shop;
 import com.ck.service.impl.ShopServiceImpl;
 import com.ck.utils.CacheClient;
 import com.ck.utils.RedisConstants;
+import com.ck.utils.RedisData;
 import com.ck.utils.RedisIdWorker;
+import com.ck.utils.codec.CacheValueSerializer;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
@@ -15,6 +20,8 @@ import redis.clients.jedis.Pipeline;
 
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +44,9 @@ class DianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private CacheValueSerializer cacheValueSerializer;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
@@ -126,4 +136,50 @@ class DianPingApplicationTests {
         System.out.println("执行时间=" + (end - start) + "ms");
     }
 
+    @Test
+    void testCacheCodec(){
+        // 对比原来的 RedisData + hutool json 和二进制格式的大小、序列化耗时
+        Shop shop = shopService.getById(1L);
+        long expireAt = System.currentTimeMillis() + 20000;
+        int rounds = 100000;
+
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(20));
+        String json = JSONUtil.toJsonStr(redisData);
+        byte[] bytes = cacheValueSerializer.encode(shop, expireAt);
+        System.out.println("json大小=" + json.getBytes(StandardCharsets.UTF_8).length + "，二进制大小=" + bytes.length);
+
+        // 预热
+        for (int i = 0; i < rounds; i++) {
+            JSONUtil.toBean((JSONObject) JSONUtil.toBean(JSONUtil.toJsonStr(redisData), RedisData.class).getData(), Shop.class);
+            cacheValueSerializer.decode(cacheValueSerializer.encode(shop, expireAt), Shop.class, true);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JSONUtil.toJsonStr(redisData);
+        }
+        long jsonEncode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JSONUtil.toBean((JSONObject) JSONUtil.toBean(json, RedisData.class).getData(), Shop.class);
+        }
+        long jsonDecode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            cacheValueSerializer.encode(shop, expireAt);
+        }
+        long binaryEncode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            cacheValueSerializer.decode(bytes, Shop.class, true);
+        }
+        long binaryDecode = System.nanoTime() - start;
+
+        System.out.println("json序列化=" + jsonEncode / rounds + "ns/op，反序列化=" + jsonDecode / rounds + "ns/op");
+        System.out.println("二进制序列化=" + binaryEncode / rounds + "ns/op，反序列化=" + binaryDecode / rounds + "ns/op");
+        Assertions.assertEquals(shop, cacheValueSerializer.decode(bytes, Shop.class, true).getValue());
+    }
+
 }
@@ -0,0 +1,222 @@
+package com.ck.utils;
+
+import com.ck.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * 用随机生成的5万个店铺对比 ShopQueryEngine 与逐个过滤、排序的结果
+ */
+class ShopQueryEngineTest {
+
+    private static final double X = 120.2;
+    private static final double Y = 30.3;
+
+    private static final long TYPE_ID = 2L;
+
+    private static List<Shop> shops;
+
+    private static ShopQueryEngine engine;
+
+    @BeforeAll
+    static void setup() {
+        Random random = new Random(1);
+        String[] areas = {"大关", "拱宸桥", "运河上街", "西湖"};
+        String[] openHours = {"10:00-22:00", "11:00-13:50,17:00-20:50", "18:00-02:00", null, "00:00-24:00"};
+        shops = new ArrayList<>();
+        for (long id = 1; id <= 50000; id++) {
+            Shop shop = new Shop()
+                    .setId(id)
+                    .setTypeId((long) (1 + random.nextInt(3)));
+            // 少量店铺没有坐标
+            if (random.nextInt(50) > 0) {
+                shop.setX(120.1 + random.nextDouble() * 0.2).setY(30.2 + random.nextDouble() * 0.2);
+            }
+            shop.setAvgPrice(random.nextInt(20) == 0 ? null : (long) random.nextInt(300))
+                    .setSold(random.nextInt(5000))
+                    .setComments(random.nextInt(2000))
+                    .setScore(random.nextInt(10) == 0 ? null : random.nextInt(51))
+                    .setArea(areas[random.nextInt(areas.length)])
+                    .setOpenHours(openHours[random.nextInt(openHours.length)]);
+            shops.add(shop);
+        }
+        engine = new ShopQueryEngine();
+        engine.load(shops);
+    }
+
+    @Test
+    void testQueryOrder() {
+        String[][] cases = {
+                {"score>=40;area!=西湖;open=12:30", ""},
+                {"avgPrice<=100;distance<=3000", "avgPrice"},
+                {"", "score:desc"},
+                {"open=01:00;area=大关", "sold:asc"},
+                {"comments>1000", "distance"},
+                {"", "avgPrice:desc"},
+                {"distance<2000", "comments"}
+        };
+        for (String[] c : cases) {
+            ShopQuery query = ShopQuery.parse(c[0], c[1], true);
+            for (int page = 0; page < 4; page++) {
+                LinkedHashMap<Long, Double> result = engine.query(TYPE_ID, X, Y, query, page * 10, 10);
+                Assertions.assertEquals(expected(query, page * 10, 10), new ArrayList<>(result.keySet()),
+                        c[0] + " | " + c[1] + " 第" + page + "页");
+            }
+        }
+    }
+
+    @Test
+    void testStrictDistance() {
+        //1. 一个店铺就在用户所在位置，距离为0
+        ShopQueryEngine single = new ShopQueryEngine();
+        List<Shop> list = new ArrayList<>();
+        list.add(new Shop().setId(1L).setTypeId(TYPE_ID).setX(X).setY(Y));
+        list.add(new Shop().setId(2L).setTypeId(TYPE_ID).setX(X + 0.01).setY(Y));
+        single.load(list);
+        //2. < 不包含边界上的店铺，<= 包含
+        ShopQuery lt = ShopQuery.parse("distance<0", "", true);
+        ShopQuery le = ShopQuery.parse("distance<=0", "", true);
+        Assertions.assertTrue(single.query(TYPE_ID, X, Y, lt, 0, 10).isEmpty());
+        Assertions.assertEquals(1, single.query(TYPE_ID, X, Y, le, 0, 10).size());
+        Assertions.assertTrue(single.query(TYPE_ID, X, Y, ShopQuery.parse("distance<0", "sold", true), 0, 10).isEmpty());
+        Assertions.assertEquals(1, single.query(TYPE_ID, X, Y, ShopQuery.parse("distance<=0", "sold", true), 0, 10).size());
+        //3. 随机店铺中引擎的结果与逐个过滤一致
+        for (String filter : new String[]{"distance<1500", "distance<=1500"}) {
+            ShopQuery query = ShopQuery.parse(filter, "", true);
+            Assertions.assertEquals(expected(query, 0, 50), new ArrayList<>(engine.query(TYPE_ID, X, Y, query, 0, 50).keySet()));
+        }
+    }
+
+    @Test
+    void testParse() {
+        ShopQuery query = ShopQuery.parse("score>=40; area=大关 ;open=12:30;distance<3000", "avgPrice:desc", true);
+        Assertions.assertEquals(1, query.getNumberConditions().size());
+        Assertions.assertEquals("大关", query.getAreaEquals());
+        Assertions.assertEquals(12 * 60 + 30, query.getOpenMinute());
+        Assertions.assertEquals(3000, query.getMaxDistance());
+        Assertions.assertFalse(query.isWithinDistance(3000));
+        Assertions.assertEquals(ShopQuery.NumberField.AVG_PRICE, query.getSortField());
+        Assertions.assertFalse(query.isAscending());
+
+        //1. 默认排序：有坐标按距离，没有坐标按评分降序
+        Assertions.assertNull(ShopQuery.parse(null, null, true).getSortField());
+        Assertions.assertEquals(ShopQuery.NumberField.SCORE, ShopQuery.parse(null, null, false).getSortField());
+        Assertions.assertTrue(ShopQuery.parse(null, null, true).isWithinDistance(ShopLocator.RADIUS_METERS));
+
+        //2. 格式错误
+        String[][] errors = {
+                {"score>>40", ""},
+                {"rating>=40", ""},
+                {"score>=abc", ""},
+                {"area>大关", ""},
+                {"open=25:00", ""},
+                {"distance>=100", ""},
+                {"", "name"},
+                {"", "score:up"},
+                {"", "distance:desc"}
+        };
+        for (String[] e : errors) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> ShopQuery.parse(e[0], e[1], true),
+                    e[0] + " | " + e[1]);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ShopQuery.parse("distance<=100", "", false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ShopQuery.parse("", "distance", false));
+    }
+
+    /**
+     * 逐个过滤、排序后取一页
+     */
+    private static List<Long> expected(ShopQuery query, int offset, int count) {
+        //1. 过滤
+        List<Shop> matched = new ArrayList<>();
+        for (Shop shop : shops) {
+            if (shop.getTypeId() != TYPE_ID || shop.getX() == null) {
+                continue;
+            }
+            if (matches(shop, query) && query.isWithinDistance(distance(shop))) {
+                matched.add(shop);
+            }
+        }
+        //2. 排序
+        Comparator<Shop> comparator;
+        if (query.getSortField() == null) {
+            comparator = Comparator.comparingDouble(ShopQueryEngineTest::distance).thenComparingLong(Shop::getId);
+        } else {
+            ShopQuery.NumberField field = query.getSortField();
+            Function<Shop, Long> value = shop -> value(shop, field);
+            Comparator<Long> order = query.isAscending() ? Comparator.naturalOrder() : Comparator.reverseOrder();
+            comparator = Comparator.comparing(value, Comparator.nullsLast(order));
+            comparator = query.isAscending()
+                    ? comparator.thenComparingLong(Shop::getId)
+                    : comparator.thenComparing(Comparator.comparingLong((Shop shop) -> shop.getId()).reversed());
+        }
+        matched.sort(comparator);
+        //3. 分页
+        List<Long> ids = new ArrayList<>();
+        for (int i = offset; i < Math.min(matched.size(), offset + count); i++) {
+            ids.add(matched.get(i).getId());
+        }
+        return ids;
+    }
+
+    private static boolean matches(Shop shop, ShopQuery query) {
+        for (ShopQuery.NumberCondition condition : query.getNumberConditions()) {
+            Long value = value(shop, condition.getField());
+            if (value == null || !condition.test(value)) {
+                return false;
+            }
+        }
+        if (query.getAreaEquals() != null && !query.getAreaEquals().equals(shop.getArea())) {
+            return false;
+        }
+        if (query.getAreaNotEquals().contains(shop.getArea())) {
+            return false;
+        }
+        return query.getOpenMinute() < 0 || isOpen(shop.getOpenHours(), query.getOpenMinute());
+    }
+
+    private static double distance(Shop shop) {
+        return GeoUtils.round(GeoUtils.distance(X, Y, shop.getX(), shop.getY()));
+    }
+
+    private static Long value(Shop shop, ShopQuery.NumberField field) {
+        switch (field) {
+            case SCORE:
+                return shop.getScore() == null ? null : shop.getScore().longValue();
+            case AVG_PRICE:
+                return shop.getAvgPrice();
+            case SOLD:
+                return shop.getSold() == null ? null : shop.getSold().longValue();
+            default:
+                return shop.getComments() == null ? null : shop.getComments().longValue();
+        }
+    }
+
+    private static boolean isOpen(String openHours, int minute) {
+        if (openHours == null) {
+            return false;
+        }
+        for (String range : openHours.split(",")) {
+            String[] parts = range.split("-");
+            int from = toMinute(parts[0]);
+            int to = toMinute(parts[1]);
+            if (from <= to ? minute >= from && minute < to : minute >= from || minute < to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toMinute(String time) {
+        String[] parts = time.split(":");
+        return Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+    }
+}